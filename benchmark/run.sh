@@ -0,0 +1,27 @@
+#!/bin/sh
+# Compiles the benchmarks with the classes of the app that use no Android
+# classes and the made up history of the test project, and runs them on
+# this JVM. Arguments are the history sizes to run, such as:
+# benchmark/run.sh 1000 100000 1000000
+# The sizes are run by TimeAccountingBenchmark, and then the first size, or
+# 100k, by LongLongMapBenchmark.
+# Run as benchmark/run.sh check [cases [seed]] to check the calculations
+# against simple ones on random cases instead.
+set -e
+cd "$(dirname "$0")"
+APP=../src/se/rende/mytime
+TESTS=../tests/src/se/rende/mytime/tests
+rm -rf bin
+mkdir bin
+javac -encoding UTF-8 -d bin \
+	$APP/BreakRules.java $APP/LongLongMap.java $APP/PeriodTable.java \
+	$APP/Periods.java $APP/Rounding.java $APP/SessionAggregator.java \
+	$APP/SessionIntervalIndex.java $APP/TimeReportWriter.java \
+	$APP/WorkRules.java $TESTS/SyntheticHistory.java \
+	$(find src -name '*.java')
+if [ "$1" = check ]; then
+	shift
+	exec java -cp bin se.rende.mytime.benchmark.PropertyChecks "$@"
+fi
+java -cp bin se.rende.mytime.benchmark.TimeAccountingBenchmark "$@"
+exec java -cp bin se.rende.mytime.benchmark.LongLongMapBenchmark "$@"
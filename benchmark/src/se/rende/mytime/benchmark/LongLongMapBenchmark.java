@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import se.rende.mytime.LongLongMap;
+import se.rende.mytime.Periods;
+import se.rende.mytime.tests.SyntheticHistory;
+
+/**
+ * Compares LongLongMap with the HashMap&lt;Long, Long&gt; it replaced for
+ * session totals, as work milliseconds by session start, over a made up
+ * history of 100k sessions or of the size given as argument. Prints the
+ * heap that each map holds, and times the lookup of each of its keys. Run
+ * by benchmark/run.sh after TimeAccountingBenchmark.
+ *
+ * @author Dag Rende
+ */
+public class LongLongMapBenchmark {
+	private static final int DEFAULT_SIZE = 100000;
+	private static final long YEAR_MILLIS = 365L * 24 * 3600 * 1000;
+	private final long[] keys;
+	private final LongLongMap longLongMap;
+	private final Map<Long, Long> hashMap;
+
+	/**
+	 * @param history
+	 *            the sessions whose starts and lengths are put in the maps,
+	 *            all ended
+	 */
+	public LongLongMapBenchmark(SyntheticHistory history) {
+		final long[] starts = new long[history.getSessionCount()];
+		final long[] lengths = new long[starts.length];
+		history.generate(new SyntheticHistory.Listener() {
+			private int i;
+
+			public void session(long id, int projectIndex, long start,
+					long end, String comment) {
+				starts[i] = start;
+				lengths[i] = end - start;
+				i++;
+			}
+		});
+		keys = starts;
+
+		long before = usedMemory();
+		LongLongMap longLongMap = new LongLongMap();
+		for (int i = 0; i < starts.length; i++) {
+			longLongMap.add(starts[i], lengths[i]);
+		}
+		long longLongMapBytes = usedMemory() - before;
+
+		before = usedMemory();
+		Map<Long, Long> hashMap = new HashMap<Long, Long>();
+		for (int i = 0; i < starts.length; i++) {
+			Long total = hashMap.get(starts[i]);
+			hashMap.put(starts[i], total == null ? lengths[i] : total
+					+ lengths[i]);
+		}
+		long hashMapBytes = usedMemory() - before;
+
+		this.longLongMap = longLongMap;
+		this.hashMap = hashMap;
+		printMemory("LongLongMap", longLongMap.size(), longLongMapBytes);
+		printMemory("HashMap", hashMap.size(), hashMapBytes);
+	}
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SIZE;
+		long endTime = Periods.getStart(Periods.DAY, System.currentTimeMillis());
+		SyntheticHistory history = new SyntheticHistory(size, endTime - 10
+				* YEAR_MILLIS, endTime, size);
+		new LongLongMapBenchmark(history).runAll();
+	}
+
+	/**
+	 * Times the lookups in the maps and prints their times.
+	 */
+	public void runAll() {
+		TimeAccountingBenchmark.time("LongLongMap.get", keys.length,
+				"lookup", new TimeAccountingBenchmark.Run() {
+					public long run() {
+						long sum = 0;
+						for (int i = 0; i < keys.length; i++) {
+							sum += longLongMap.get(keys[i], 0);
+						}
+						return sum;
+					}
+				});
+		TimeAccountingBenchmark.time("HashMap.get", keys.length, "lookup",
+				new TimeAccountingBenchmark.Run() {
+					public long run() {
+						long sum = 0;
+						for (int i = 0; i < keys.length; i++) {
+							Long total = hashMap.get(keys[i]);
+							sum += total == null ? 0 : total;
+						}
+						return sum;
+					}
+				});
+	}
+
+	private static void printMemory(String name, int size, long bytes) {
+		System.out.println(name + "\t" + size + " entries\t" + bytes
+				+ " bytes\t"
+				+ TimeAccountingBenchmark.format(bytes / (double) size)
+				+ " bytes/entry");
+	}
+
+	/**
+	 * Returns the bytes of heap in use after garbage collection.
+	 */
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// collect until no more is freed
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+			long now = runtime.totalMemory() - runtime.freeMemory();
+			if (now >= used) {
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import se.rende.mytime.BreakRules;
+import se.rende.mytime.PeriodTable;
+import se.rende.mytime.Periods;
+import se.rende.mytime.SessionIntervalIndex;
+
+/**
+ * Checks the fast work time calculations of the app against slow and simple
+ * ones on many random cases, on a plain JVM. Run by benchmark/run.sh check.
+ * The checks are:
+ * <ul>
+ * <li>breaks - BreakRules.getBreakMillis against the breaks of each day of
+ * a session summed one by one</li>
+ * <li>periods - the days, weeks and months of PeriodTable against those
+ * that Calendar gives</li>
+ * <li>overlaps - SessionIntervalIndex.findOverlaps and findAllOverlaps
+ * against a comparison of every pair of sessions</li>
+ * </ul>
+ * The checks are run in time zones with daylight saving transitions at and
+ * around midnight and with skipped days. Arguments, both optional, are the
+ * number of cases of each check in each zone, 20000 by default, and the
+ * seed, 1 by default. The first failures of each check are printed, and the
+ * exit status is 1 if any case failed.
+ *
+ * @author Dag Rende
+ */
+public class PropertyChecks {
+	private static final String[] ZONES = { "UTC", "Europe/Stockholm",
+			"America/New_York", "America/Goose_Bay", "America/Sao_Paulo",
+			"America/Havana", "Australia/Lord_Howe", "Pacific/Apia",
+			"Asia/Kolkata", "Asia/Tehran" };
+	/** first day of week and minimal days in first week of the weeks checked */
+	private static final int[][] WEEKS = { { Calendar.MONDAY, 4 },
+			{ Calendar.SUNDAY, 1 }, { Calendar.SATURDAY, 1 } };
+	private static final long MINUTE_MILLIS = 60 * 1000;
+	private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+	private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+	/** break times are within the longest day, as BreakRules keeps them */
+	private static final int DAY_MINUTES = 25 * 60;
+	private static final int MAX_FAILURES_SHOWN = 10;
+	private static final long FROM = new GregorianCalendar(1971,
+			Calendar.JANUARY, 1).getTimeInMillis();
+	private static final long TO = new GregorianCalendar(2037,
+			Calendar.DECEMBER, 1).getTimeInMillis();
+	private final Random random;
+	private final int cases;
+	private int failures;
+	private int failuresShown;
+	/** the break rules being checked */
+	private BreakRules breakRules;
+	/** minute by minute breaks of the break rules, by day of week - 1 */
+	private boolean[][] breakMinutes;
+
+	public PropertyChecks(long seed, int cases) {
+		random = new Random(seed);
+		this.cases = cases;
+	}
+
+	public static void main(String[] args) {
+		int cases = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		System.out.println("java " + System.getProperty("java.version")
+				+ ", " + cases + " cases, seed " + seed);
+		PropertyChecks checks = new PropertyChecks(seed, cases);
+		int failures = checks.checkBreaks() + checks.checkPeriods()
+				+ checks.checkOverlaps();
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private void fail(String message) {
+		failures++;
+		if (failuresShown++ < MAX_FAILURES_SHOWN) {
+			System.out.println("  FAILED " + message);
+		}
+	}
+
+	private int report(String name, int checked) {
+		System.out.println(name + "\t" + checked + " cases\t" + failures
+				+ " failed");
+		int result = failures;
+		failures = 0;
+		failuresShown = 0;
+		return result;
+	}
+
+	/**
+	 * Checks BreakRules.getBreakMillis against the overlap of each day of a
+	 * session with the breaks of that day, where the breaks of a day of week
+	 * are marked minute by minute, in each zone.
+	 *
+	 * @return number of failed cases
+	 */
+	int checkBreaks() {
+		TimeZone defaultZone = TimeZone.getDefault();
+		int checked = 0;
+		try {
+			for (String zoneId : ZONES) {
+				TimeZone zone = TimeZone.getTimeZone(zoneId);
+				TimeZone.setDefault(zone);
+				Periods.reset();
+				LocalDays days = new LocalDays(zone);
+				for (int i = 0; i < cases; i++) {
+					if (i % 100 == 0) {
+						makeBreaks(i % 200 == 0);
+					}
+					long start = randomTime();
+					long end = start + randomDuration();
+					long expected = getBreakMillisByDay(days, start, end);
+					long actual = breakRules.getBreakMillis(start, end);
+					if (actual != expected) {
+						fail(zoneId + " " + breakRules + " [" + start + ", "
+								+ end + ") got " + actual + " expected "
+								+ expected);
+					}
+					checked++;
+				}
+			}
+		} finally {
+			TimeZone.setDefault(defaultZone);
+			Periods.reset();
+		}
+		return report("breaks", checked);
+	}
+
+	/**
+	 * Makes random break rules, of up to three breaks a day that may
+	 * overlap, and the same breaks minute by minute.
+	 *
+	 * @param late
+	 *            true to let breaks end up to the end of the longest day,
+	 *            false to end them before the end of the shortest
+	 */
+	private void makeBreaks(boolean late) {
+		int maxMinute = late ? DAY_MINUTES : 23 * 60;
+		long[][] breaksByDayOfWeek = new long[7][];
+		breakMinutes = new boolean[7][DAY_MINUTES];
+		for (int day = 0; day < 7; day++) {
+			int count = random.nextInt(4);
+			if (count == 0 && random.nextBoolean()) {
+				continue;
+			}
+			breaksByDayOfWeek[day] = new long[2 * count];
+			for (int i = 0; i < count; i++) {
+				int start = random.nextInt(maxMinute);
+				// some empty or backwards, which are no break
+				int end = Math.min(maxMinute, start - 30 + random.nextInt(300));
+				breaksByDayOfWeek[day][2 * i] = start * MINUTE_MILLIS;
+				breaksByDayOfWeek[day][2 * i + 1] = end * MINUTE_MILLIS;
+				for (int minute = start; minute < end; minute++) {
+					breakMinutes[day][minute] = true;
+				}
+			}
+		}
+		breakRules = new BreakRules(breaksByDayOfWeek);
+	}
+
+	/**
+	 * Returns the break time of a session, as the overlap of each of its
+	 * days with the breaks of that day, up to the start of the next day.
+	 */
+	private long getBreakMillisByDay(LocalDays days, long start, long end) {
+		long breakMillis = 0;
+		int[] date = days.getDate(start);
+		long dayStart = days.getStart(date);
+		while (dayStart < end) {
+			int[] nextDate = LocalDays.addDays(date, 1);
+			long nextDayStart = days.getStart(nextDate);
+			boolean[] minutes = breakMinutes[LocalDays.getDayOfWeek(date) - 1];
+			for (int minute = 0; minute < DAY_MINUTES; minute++) {
+				if (minutes[minute]) {
+					long from = Math.max(start, dayStart + minute
+							* MINUTE_MILLIS);
+					long to = Math.min(Math.min(end, nextDayStart), dayStart
+							+ (minute + 1) * MINUTE_MILLIS);
+					if (to > from) {
+						breakMillis += to - from;
+					}
+				}
+			}
+			date = nextDate;
+			dayStart = nextDayStart;
+		}
+		return breakMillis;
+	}
+
+	/**
+	 * Checks the days, weeks and months of PeriodTable against the dates
+	 * and week numbers of Calendar, in each zone and for weeks starting on
+	 * different days.
+	 *
+	 * @return number of failed cases
+	 */
+	int checkPeriods() {
+		int checked = 0;
+		for (String zoneId : ZONES) {
+			TimeZone zone = TimeZone.getTimeZone(zoneId);
+			LocalDays days = new LocalDays(zone);
+			for (int[] week : WEEKS) {
+				PeriodTable table = new PeriodTable(zone, week[0], week[1]);
+				Calendar cal = Calendar.getInstance(zone);
+				cal.setFirstDayOfWeek(week[0]);
+				cal.setMinimalDaysInFirstWeek(week[1]);
+				for (int i = 0; i < cases / WEEKS.length; i++) {
+					long time = randomTime();
+					String failure = checkPeriods(table, days, cal, time);
+					if (failure != null) {
+						fail(zoneId + " week " + Arrays.toString(week)
+								+ " time " + time + ": " + failure);
+					}
+					checked++;
+				}
+			}
+		}
+		return report("periods", checked);
+	}
+
+	/**
+	 * Returns what differs between the table and Calendar for the periods
+	 * of time, or null if nothing does.
+	 */
+	private static String checkPeriods(PeriodTable table, LocalDays days,
+			Calendar cal, long time) {
+		int[] date = days.getDate(time);
+		int dayKey = table.getDayKey(time);
+		String failure = compare("day start", table.getKeyStart(Periods.DAY,
+				dayKey), days.getStart(date));
+		failure = compare(failure, "next day start", table.getKeyStart(
+				Periods.DAY, table.addPeriods(Periods.DAY, dayKey, 1)), days
+				.getStart(LocalDays.addDays(date, 1)));
+		failure = compare(failure, "year", PeriodTable.getYear(dayKey),
+				date[0]);
+		failure = compare(failure, "month", table.getMonth(dayKey), date[1]);
+		failure = compare(failure, "day of month", table
+				.getDayOfMonth(dayKey), date[2]);
+		failure = compare(failure, "day of week", table.getDayOfWeek(dayKey),
+				LocalDays.getDayOfWeek(date));
+
+		int[] weekDate = LocalDays.addDays(date, -((LocalDays
+				.getDayOfWeek(date)
+				- table.getFirstDayOfWeek() + 7) % 7));
+		int weekKey = table.getWeekKey(time);
+		failure = compare(failure, "week start", table.getKeyStart(
+				Periods.WEEK, weekKey), days.getStart(weekDate));
+		failure = compare(failure, "next week start", table.getKeyStart(
+				Periods.WEEK, table.addPeriods(Periods.WEEK, weekKey, 1)),
+				days.getStart(LocalDays.addDays(weekDate, 7)));
+		cal.setTimeInMillis(time);
+		failure = compare(failure, "week number", table
+				.getWeekNumber(weekKey), cal.get(Calendar.WEEK_OF_YEAR));
+
+		int monthKey = table.getMonthKey(time);
+		int[] monthDate = { date[0], date[1], 1 };
+		int[] nextMonthDate = date[1] == Calendar.DECEMBER ? new int[] {
+				date[0] + 1, Calendar.JANUARY, 1 } : new int[] { date[0],
+				date[1] + 1, 1 };
+		failure = compare(failure, "month start", table.getKeyStart(
+				Periods.MONTH, monthKey), days.getStart(monthDate));
+		failure = compare(failure, "next month start", table.getKeyStart(
+				Periods.MONTH, table.addPeriods(Periods.MONTH, monthKey, 1)),
+				days.getStart(nextMonthDate));
+		return failure;
+	}
+
+	private static String compare(String what, long actual, long expected) {
+		return compare(null, what, actual, expected);
+	}
+
+	/**
+	 * Returns the failures so far, with this one added if actual is not as
+	 * expected.
+	 */
+	private static String compare(String failures, String what, long actual,
+			long expected) {
+		if (actual == expected) {
+			return failures;
+		}
+		String failure = what + " " + actual + " expected " + expected;
+		return failures == null ? failure : failures + ", " + failure;
+	}
+
+	/**
+	 * Checks SessionIntervalIndex against comparing every pair of sessions,
+	 * on small random sets of sessions that overlap often, with running and
+	 * empty sessions and equal starts.
+	 *
+	 * @return number of failed cases
+	 */
+	int checkOverlaps() {
+		int checked = 0;
+		for (int i = 0; i < cases; i++) {
+			int n = random.nextInt(60);
+			long[] ids = new long[n];
+			long[] projectIds = new long[n];
+			long[] starts = new long[n];
+			long[] ends = new long[n];
+			for (int j = 0; j < n; j++) {
+				starts[j] = random.nextInt(1000);
+			}
+			Arrays.sort(starts);
+			for (int j = 0; j < n; j++) {
+				ids[j] = 100 + j;
+				projectIds[j] = random.nextInt(3);
+				ends[j] = random.nextInt(20) == 0 ? Long.MAX_VALUE
+						: starts[j] + random.nextInt(random.nextBoolean() ? 10
+								: 200);
+			}
+			SessionIntervalIndex index = new SessionIntervalIndex(ids,
+					projectIds, starts, ends);
+
+			long start = random.nextInt(1100) - 50;
+			long end = random.nextInt(10) == 0 ? Long.MAX_VALUE : start
+					+ random.nextInt(300);
+			long exceptId = n > 0 && random.nextBoolean() ? ids[random
+					.nextInt(n)] : -1;
+			List<Integer> expected = new ArrayList<Integer>();
+			for (int j = 0; j < n; j++) {
+				if (starts[j] < end && start < ends[j] && ids[j] != exceptId) {
+					expected.add(j);
+				}
+			}
+			int[] found = index.findOverlaps(start, end, exceptId);
+			if (!expected.toString().equals(Arrays.toString(found))) {
+				fail("findOverlaps " + describe(starts, ends) + " [" + start
+						+ ", " + end + ") except " + exceptId + " got "
+						+ Arrays.toString(found) + " expected " + expected);
+			}
+
+			final List<String> pairs = new ArrayList<String>();
+			index.findAllOverlaps(new SessionIntervalIndex.OverlapListener() {
+				public void overlap(int first, int second) {
+					pairs.add(first + "-" + second);
+				}
+			});
+			List<String> expectedPairs = new ArrayList<String>();
+			for (int j = 0; j < n; j++) {
+				for (int k = j + 1; k < n; k++) {
+					if (starts[j] < ends[k] && starts[k] < ends[j]) {
+						expectedPairs.add(j + "-" + k);
+					}
+				}
+			}
+			if (!pairs.equals(expectedPairs)) {
+				fail("findAllOverlaps " + describe(starts, ends) + " got "
+						+ pairs + " expected " + expectedPairs);
+			}
+			checked++;
+		}
+		return report("overlaps", checked);
+	}
+
+	private static String describe(long[] starts, long[] ends) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < starts.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(starts[i]).append('-').append(
+					ends[i] == Long.MAX_VALUE ? "running" : Long
+							.toString(ends[i]));
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Returns a random time, mostly near midnight, where daylight saving
+	 * transitions may be.
+	 */
+	private long randomTime() {
+		long time = FROM + (long) (random.nextDouble() * (TO - FROM));
+		if (random.nextBoolean()) {
+			// on a whole hour or minute around it
+			time -= time % HOUR_MILLIS;
+			time += (random.nextInt(3) - 1) * MINUTE_MILLIS;
+		}
+		return time;
+	}
+
+	/**
+	 * Returns a random session length, mostly within a day, some of days
+	 * and weeks and a few of more than a year.
+	 */
+	private long randomDuration() {
+		int kind = random.nextInt(20);
+		if (kind == 0) {
+			return (long) (random.nextDouble() * 500 * DAY_MILLIS);
+		} else if (kind < 6) {
+			return (long) (random.nextDouble() * 20 * DAY_MILLIS);
+		} else if (kind < 8) {
+			return random.nextInt(3) * HOUR_MILLIS;
+		}
+		return (long) (random.nextDouble() * DAY_MILLIS);
+	}
+
+	/**
+	 * The dates of a time zone as year, month and day of month, as Calendar
+	 * numbers them, and the start of each date found minute by minute
+	 * where it is not the midnight that Calendar gives.
+	 */
+	private static final class LocalDays {
+		/** the earliest a day may start before the midnight of Calendar */
+		private static final long MAX_SHIFT = 3 * HOUR_MILLIS;
+		private static final Calendar UTC_DATES = new GregorianCalendar(
+				TimeZone.getTimeZone("UTC"));
+		private final Calendar cal;
+
+		LocalDays(TimeZone zone) {
+			cal = new GregorianCalendar(zone);
+		}
+
+		int[] getDate(long time) {
+			cal.setTimeInMillis(time);
+			return new int[] { cal.get(Calendar.YEAR), cal.get(Calendar.MONTH),
+					cal.get(Calendar.DAY_OF_MONTH) };
+		}
+
+		private boolean isBefore(long time, int[] date) {
+			int[] d = getDate(time);
+			for (int i = 0; i < 3; i++) {
+				if (d[i] != date[i]) {
+					return d[i] < date[i];
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the first time that is on the date or after it, the start
+		 * of the next date if a transition skips the date.
+		 */
+		long getStart(int[] date) {
+			cal.clear();
+			cal.set(date[0], date[1], date[2]);
+			long midnight = cal.getTimeInMillis();
+			if (!isBefore(midnight, date) && isBefore(midnight - 1, date)) {
+				return midnight;
+			}
+			// a transition at midnight, all in whole minutes
+			for (long time = midnight - MAX_SHIFT; time < midnight + MAX_SHIFT; time += MINUTE_MILLIS) {
+				if (!isBefore(time, date)) {
+					return time;
+				}
+			}
+			throw new IllegalStateException("no start of "
+					+ Arrays.toString(date));
+		}
+
+		static int[] addDays(int[] date, int count) {
+			synchronized (UTC_DATES) {
+				UTC_DATES.clear();
+				UTC_DATES.set(date[0], date[1], date[2]);
+				UTC_DATES.add(Calendar.DAY_OF_MONTH, count);
+				return new int[] { UTC_DATES.get(Calendar.YEAR),
+						UTC_DATES.get(Calendar.MONTH),
+						UTC_DATES.get(Calendar.DAY_OF_MONTH) };
+			}
+		}
+
+		static int getDayOfWeek(int[] date) {
+			synchronized (UTC_DATES) {
+				UTC_DATES.clear();
+				UTC_DATES.set(date[0], date[1], date[2]);
+				return UTC_DATES.get(Calendar.DAY_OF_WEEK);
+			}
+		}
+	}
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime.benchmark;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.DateFormatSymbols;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import se.rende.mytime.BreakRules;
+import se.rende.mytime.Periods;
+import se.rende.mytime.Rounding;
+import se.rende.mytime.SessionAggregator;
+import se.rende.mytime.TimeReportWriter;
+import se.rende.mytime.WorkRules;
+import se.rende.mytime.tests.SyntheticHistory;
+
+/**
+ * Times the work time calculations of the app on a plain JVM, over made up
+ * histories of 1k, 100k and 1M sessions, or of the sizes given as
+ * arguments. Run by benchmark/run.sh.
+ *
+ * Each benchmark is run to warm up and then timed, a few times and for at
+ * least half a second each, and the fastest and the mean time per session
+ * are printed. The benchmarks are:
+ * <ul>
+ * <li>workMillis - WorkRules.getWorkMillis of each session, as
+ * Sessions.getWorkHours, with lunch excluded</li>
+ * <li>workMillisOld - the same by the path that Sessions.getWorkHours took
+ * before WorkRules, which read and parsed the settings for each session and
+ * found the lunch by a Calendar</li>
+ * <li>totals - the day, week and month totals of all sessions, by the
+ * SessionAggregator that session totals are rebuilt by</li>
+ * <li>report - a time report of all sessions with week and month totals, by
+ * the TimeReportWriter of ShareProjectReport.writeHtmlReport</li>
+ * <li>periodInfo - the start, end and label number of the week and month
+ * before the start of each session, as ShareProjectReport.PeriodInfo</li>
+ * <li>rounding - Rounding.roundSession of a random length of up to a day,
+ * in milliseconds, one per session</li>
+ * <li>roundingFloat - the same rounding by the float formula that
+ * Sessions.getWorkHours used before Rounding, whose results are counted
+ * where they differ from those of Rounding</li>
+ * </ul>
+ *
+ * @author Dag Rende
+ */
+public class TimeAccountingBenchmark {
+	private static final int[] DEFAULT_SIZES = { 1000, 100000, 1000000 };
+	private static final int WARMUP_RUNS = 3;
+	private static final int TIMED_RUNS = 5;
+	/** warm up and time for at least this long, for the JIT to compile */
+	private static final long MIN_PHASE_NANOS = 500L * 1000 * 1000;
+	private static final long YEAR_MILLIS = 365L * 24 * 3600 * 1000;
+	/** results are summed here, so that the work is not optimized away */
+	static volatile long sink;
+	private final long[] ids;
+	private final long[] starts;
+	private final long[] ends;
+	private final String[] comments;
+	/** random lengths to round, as the sessions are in whole minutes */
+	private final long[] lengths;
+	private final WorkRules workRules;
+	/** the precision of workRules in hours, for the float formula */
+	private final float precision;
+	/** the settings of workRules as stored, for the old per call path */
+	private final Map<String, String> preferences = new HashMap<String, String>();
+
+	/**
+	 * Is one benchmark run, over all sessions or the items timed.
+	 */
+	interface Run {
+		long run();
+	}
+
+	/**
+	 * @param history
+	 *            the sessions to time, all ended
+	 * @param workRules
+	 *            what the work time of a session is calculated by
+	 */
+	public TimeAccountingBenchmark(SyntheticHistory history,
+			WorkRules workRules) {
+		int n = history.getSessionCount();
+		ids = new long[n];
+		starts = new long[n];
+		ends = new long[n];
+		comments = new String[n];
+		history.generate(new SyntheticHistory.Listener() {
+			private int i;
+
+			public void session(long id, int projectIndex, long start,
+					long end, String comment) {
+				ids[i] = id;
+				starts[i] = start;
+				ends[i] = end;
+				comments[i] = comment;
+				i++;
+			}
+		});
+		lengths = new long[n];
+		Random random = new Random(n);
+		for (int i = 0; i < n; i++) {
+			lengths[i] = (long) (random.nextDouble() * 24 * 3600 * 1000);
+		}
+		this.workRules = workRules;
+		precision = workRules.getRounding().getUnitMillis() / 3600000f;
+		preferences.put("precision", Float.toString(precision));
+		preferences.put("lunch_start", "11:30");
+		preferences.put("lunch_end", "12:30");
+	}
+
+	public static void main(String[] args) {
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		WorkRules workRules = new WorkRules(new Rounding(15 * 60 * 1000,
+				Rounding.SESSION, false), BreakRules.everyDay(
+				(11 * 60 + 30) * 60 * 1000, (12 * 60 + 30) * 60 * 1000));
+		System.out.println("java " + System.getProperty("java.version")
+				+ ", " + workRules);
+		long endTime = Periods.getStart(Periods.DAY, System
+				.currentTimeMillis());
+		for (int size : sizes) {
+			// all ended, over ten years
+			SyntheticHistory history = new SyntheticHistory(size, endTime - 10
+					* YEAR_MILLIS, endTime, size);
+			new TimeAccountingBenchmark(history, workRules).runAll();
+		}
+	}
+
+	/**
+	 * Runs the benchmarks and prints their times.
+	 */
+	public void runAll() {
+		time("workMillis", new Run() {
+			public long run() {
+				return sumWorkMillis();
+			}
+		});
+		time("workMillisOld", new Run() {
+			public long run() {
+				return sumWorkMillisOld();
+			}
+		});
+		time("totals", new Run() {
+			public long run() {
+				return sumTotals();
+			}
+		});
+		time("report", new Run() {
+			public long run() {
+				return writeReport();
+			}
+		});
+		time("periodInfo", new Run() {
+			public long run() {
+				return findPeriods();
+			}
+		});
+		time("rounding", new Run() {
+			public long run() {
+				return sumRounded();
+			}
+		});
+		time("roundingFloat", new Run() {
+			public long run() {
+				return sumRoundedFloat();
+			}
+		});
+		System.out.println("roundingFloat\t" + ids.length + " sessions\t"
+				+ countRoundingDifferences() + " differ from rounding");
+	}
+
+	private void time(String name, Run run) {
+		time(name, ids.length, "session", run);
+	}
+
+	/**
+	 * Warms up and times run, and prints its times per item.
+	 *
+	 * @param count
+	 *            the number of items that run handles
+	 * @param item
+	 *            what the items are called
+	 */
+	static void time(String name, int count, String item, Run run) {
+		long warmupEnd = System.nanoTime() + MIN_PHASE_NANOS;
+		for (int i = 0; i < WARMUP_RUNS || System.nanoTime() < warmupEnd; i++) {
+			sink += run.run();
+		}
+		long fastest = Long.MAX_VALUE;
+		long total = 0;
+		int runs = 0;
+		while (runs < TIMED_RUNS || total < MIN_PHASE_NANOS) {
+			long before = System.nanoTime();
+			sink += run.run();
+			long nanos = System.nanoTime() - before;
+			fastest = Math.min(fastest, nanos);
+			total += nanos;
+			runs++;
+		}
+		int n = Math.max(1, count);
+		System.out.println(name + "\t" + count + " " + item + "s\t"
+				+ format(fastest / (double) n) + " ns/" + item + " fastest\t"
+				+ format(total / (double) runs / n) + " ns/" + item + " mean\t"
+				+ format(fastest / 1e6) + " ms/run fastest\t" + runs
+				+ " runs");
+	}
+
+	static String format(double value) {
+		return String.format("%.1f", value);
+	}
+
+	long sumWorkMillis() {
+		long sum = 0;
+		for (int i = 0; i < ids.length; i++) {
+			sum += workRules.getWorkMillis(starts[i], ends[i]);
+		}
+		return sum;
+	}
+
+	long sumWorkMillisOld() {
+		long sum = 0;
+		for (int i = 0; i < ids.length; i++) {
+			sum += getWorkMillisOld(starts[i], ends[i]);
+		}
+		return sum;
+	}
+
+	/**
+	 * Calculates work time as Sessions.getWorkMillis did before WorkRules,
+	 * with lunch excluded.
+	 */
+	private long getWorkMillisOld(long startTime, long endTime) {
+		float precision = getPrecisionOld();
+		long lunchMsExclusion = 0;
+		long lunchStart = getMsFromMidnight(preferences.get("lunch_start"));
+		long lunchEnd = getMsFromMidnight(preferences.get("lunch_end"));
+
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(startTime);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		long dayStart = cal.getTimeInMillis();
+		while (true) {
+			long start = Math.max(startTime, dayStart + lunchStart);
+			long end = Math.min(endTime, dayStart + lunchEnd);
+			long overlap = Math.max(0, end - start);
+			if (overlap == 0) {
+				break;
+			}
+			lunchMsExclusion += overlap;
+			dayStart += 24 * 3600 * 1000; // to next day start
+		}
+		return roundFloat(endTime - startTime - lunchMsExclusion, precision);
+	}
+
+	/**
+	 * Parses the precision as Settings.getPrecision does.
+	 */
+	private float getPrecisionOld() {
+		String precisionString = preferences.get("precision");
+		try {
+			return Float.parseFloat(precisionString);
+		} catch (NumberFormatException e) {
+			try {
+				return Float.parseFloat(precisionString.replace(',', '.'));
+			} catch (NumberFormatException e1) {
+				return 0.1f;
+			}
+		}
+	}
+
+	/**
+	 * Parses a time of day as Settings.getMsFromMidnight does.
+	 */
+	private static long getMsFromMidnight(String timeString) {
+		String[] timeParts = timeString.split(":");
+		return 60000L * (Long.parseLong(timeParts[0]) * 60L + Long
+				.parseLong(timeParts[1]));
+	}
+
+	long sumTotals() {
+		final long[] sum = new long[1];
+		SessionAggregator aggregator = new SessionAggregator(workRules,
+				Periods.KINDS, new SessionAggregator.Listener() {
+					public void periodEnded(int kind, long periodStart,
+							long workMillis, int sessionCount,
+							long lastSessionId, long lastSessionStart) {
+						sum[0] += workMillis + sessionCount;
+					}
+				});
+		for (int i = 0; i < ids.length; i++) {
+			aggregator.add(ids[i], starts[i], ends[i]);
+		}
+		aggregator.finish();
+		return sum[0];
+	}
+
+	long writeReport() {
+		CountingWriter writer = new CountingWriter();
+		TimeReportWriter reportWriter = new TimeReportWriter(new PrintWriter(
+				writer), workRules, 0, Long.MAX_VALUE);
+		reportWriter.setIncludeWeekTotals(true);
+		reportWriter.setIncludeMonthTotals(true);
+		for (int i = 0; i < ids.length; i++) {
+			reportWriter.addSession(ids[i], starts[i], ends[i], comments[i]);
+		}
+		reportWriter.finish();
+		return writer.count;
+	}
+
+	long findPeriods() {
+		String[] months = new DateFormatSymbols().getMonths();
+		long sum = 0;
+		for (int i = 0; i < ids.length; i++) {
+			long weekFrom = Periods.move(Periods.WEEK, starts[i], -1);
+			long monthFrom = Periods.move(Periods.MONTH, starts[i], -1);
+			sum += Periods.getEnd(Periods.WEEK, weekFrom)
+					+ Periods.getWeekNumber(weekFrom)
+					+ Periods.getEnd(Periods.MONTH, monthFrom)
+					+ months[Periods.getMonth(monthFrom)].length();
+		}
+		return sum;
+	}
+
+	long sumRounded() {
+		Rounding rounding = workRules.getRounding();
+		long sum = 0;
+		for (int i = 0; i < ids.length; i++) {
+			sum += rounding.roundSession(lengths[i]);
+		}
+		return sum;
+	}
+
+	long sumRoundedFloat() {
+		long sum = 0;
+		for (int i = 0; i < ids.length; i++) {
+			sum += roundFloat(lengths[i], precision);
+		}
+		return sum;
+	}
+
+	int countRoundingDifferences() {
+		Rounding rounding = workRules.getRounding();
+		int count = 0;
+		for (int i = 0; i < ids.length; i++) {
+			long millis = lengths[i];
+			if (rounding.roundSession(millis) != roundFloat(millis, precision)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Rounds to the nearest multiple of precision hours, as
+	 * Sessions.getWorkHours did before Rounding.
+	 */
+	static long roundFloat(long msTime, float precision) {
+		int roundedTime = (int) ((float) msTime / precision / 3600000f + 0.5f);
+		return Math.round(roundedTime * (double) precision * 3600000d);
+	}
+
+	/**
+	 * Counts the characters written to it, and throws them away.
+	 */
+	private static class CountingWriter extends Writer {
+		long count;
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+
+/**
+ * The breaks that are not work time, such as lunch, as intervals of
+ * milliseconds from local midnight, per day of week. The break time of a
+ * session is the overlap of its first and last day with the breaks of those
+ * days, plus the breaks of the whole days between them, which are counted
+ * per day of week, so it takes the same time for sessions of any length.
+ * Where a day in the years of the session is shorter than the latest break
+ * end, such as a day that a time zone change skips, the days are summed one
+ * by one instead.
+ *
+ * Uses no Android classes. Is immutable.
+ *
+ * @author Dag Rende
+ */
+public final class BreakRules {
+	public static final BreakRules NONE = new BreakRules(new long[7][]);
+	/** the longest day, on a daylight saving transition */
+	private static final long MAX_DAY_MILLIS = 25 * 3600 * 1000L;
+	/** sorted disjoint break starts and ends, by Calendar.DAY_OF_WEEK - 1 */
+	private final long[][] breaks = new long[7][];
+	/** summed breaks, by Calendar.DAY_OF_WEEK - 1 */
+	private final long[] dayBreakMillis = new long[7];
+	private final long weekBreakMillis;
+	/** the latest end of a break, from midnight */
+	private final long latestBreakEnd;
+
+	/**
+	 * @param breaksByDayOfWeek
+	 *            by Calendar.DAY_OF_WEEK - 1, the starts and ends of the
+	 *            breaks of the day, start0, end0, start1, end1 and so on, in
+	 *            milliseconds from midnight, or null if none. They may be in
+	 *            any order and overlap.
+	 */
+	public BreakRules(long[][] breaksByDayOfWeek) {
+		if (breaksByDayOfWeek.length != 7) {
+			throw new IllegalArgumentException("days="
+					+ breaksByDayOfWeek.length);
+		}
+		long week = 0;
+		long latestEnd = 0;
+		for (int day = 0; day < 7; day++) {
+			breaks[day] = merge(breaksByDayOfWeek[day]);
+			for (int i = 0; i < breaks[day].length; i += 2) {
+				dayBreakMillis[day] += breaks[day][i + 1] - breaks[day][i];
+				latestEnd = Math.max(latestEnd, breaks[day][i + 1]);
+			}
+			week += dayBreakMillis[day];
+		}
+		weekBreakMillis = week;
+		latestBreakEnd = latestEnd;
+	}
+
+	/**
+	 * Returns the rules of the same breaks every day.
+	 *
+	 * @param breaks
+	 *            start0, end0, start1, end1 and so on, in milliseconds from
+	 *            midnight
+	 */
+	public static BreakRules everyDay(long... breaks) {
+		long[][] breaksByDayOfWeek = new long[7][];
+		Arrays.fill(breaksByDayOfWeek, breaks);
+		return new BreakRules(breaksByDayOfWeek);
+	}
+
+	/**
+	 * Returns the rules of the same breaks Monday to Friday, and none on
+	 * weekends.
+	 *
+	 * @param breaks
+	 *            start0, end0, start1, end1 and so on, in milliseconds from
+	 *            midnight
+	 */
+	public static BreakRules weekdays(long... breaks) {
+		long[][] breaksByDayOfWeek = new long[7][];
+		for (int day = Calendar.MONDAY; day <= Calendar.FRIDAY; day++) {
+			breaksByDayOfWeek[day - 1] = breaks;
+		}
+		return new BreakRules(breaksByDayOfWeek);
+	}
+
+	/**
+	 * Returns the breaks of a day, sorted, disjoint, and within the longest
+	 * day.
+	 */
+	private static long[] merge(long[] dayBreaks) {
+		if (dayBreaks == null || dayBreaks.length == 0) {
+			return new long[0];
+		}
+		if (dayBreaks.length % 2 != 0) {
+			throw new IllegalArgumentException("odd number of break times");
+		}
+		long[][] intervals = new long[dayBreaks.length / 2][];
+		for (int i = 0; i < intervals.length; i++) {
+			intervals[i] = new long[] {
+					Math.max(0, Math.min(MAX_DAY_MILLIS, dayBreaks[2 * i])),
+					Math.max(0, Math.min(MAX_DAY_MILLIS, dayBreaks[2 * i + 1])) };
+		}
+		Arrays.sort(intervals, new Comparator<long[]>() {
+			public int compare(long[] a, long[] b) {
+				return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+			}
+		});
+		long[] merged = new long[dayBreaks.length];
+		int n = 0;
+		for (long[] interval : intervals) {
+			if (interval[1] <= interval[0]) {
+				continue;
+			}
+			if (n > 0 && interval[0] <= merged[n - 1]) {
+				merged[n - 1] = Math.max(merged[n - 1], interval[1]);
+			} else {
+				merged[n++] = interval[0];
+				merged[n++] = interval[1];
+			}
+		}
+		long[] result = new long[n];
+		System.arraycopy(merged, 0, result, 0, n);
+		return result;
+	}
+
+	/**
+	 * Returns true if there are no breaks.
+	 */
+	public boolean isEmpty() {
+		return weekBreakMillis == 0;
+	}
+
+	/**
+	 * Returns the time of the breaks between startTime and endTime.
+	 *
+	 * @return milliseconds of break time
+	 */
+	public long getBreakMillis(long startTime, long endTime) {
+		if (endTime <= startTime || weekBreakMillis == 0) {
+			return 0;
+		}
+		PeriodTable table = Periods.getTable();
+		if (!table.covers(startTime) || !table.covers(endTime - 1)) {
+			return getBreakMillisByDay(startTime, endTime);
+		}
+		int firstDay = table.getDayKey(startTime);
+		int lastDay = table.getDayKey(endTime - 1);
+		if (table.getShortestDayMillis(firstDay, lastDay) < latestBreakEnd) {
+			return getBreakMillisByDay(startTime, endTime);
+		}
+		int firstDayOfWeek = table.getDayOfWeek(firstDay);
+		// breaks end within the shortest day, so those of the first day
+		// are all before the second day
+		long breakMillis = getOverlap(firstDayOfWeek, table.getKeyStart(
+				Periods.DAY, firstDay), startTime, endTime);
+		if (lastDay == firstDay) {
+			return breakMillis;
+		}
+		long lastMidnight = table.getKeyStart(Periods.DAY, lastDay);
+		breakMillis += getOverlap(table.getDayOfWeek(lastDay), lastMidnight,
+				lastMidnight, endTime);
+		int wholeDays = PeriodTable.getDayNumber(lastDay)
+				- PeriodTable.getDayNumber(firstDay) - 1;
+		breakMillis += wholeDays / 7 * weekBreakMillis;
+		int dayOfWeek = firstDayOfWeek;
+		for (int i = wholeDays % 7; i > 0; i--) {
+			dayOfWeek = dayOfWeek % 7 + 1;
+			breakMillis += dayBreakMillis[dayOfWeek - 1];
+		}
+		return breakMillis;
+	}
+
+	/**
+	 * Returns the break time by summing the overlap of each day, for breaks
+	 * that do not fit in the shortest day of the years of the session, and
+	 * times outside of the period table.
+	 */
+	private long getBreakMillisByDay(long startTime, long endTime) {
+		Calendar cal = Calendar.getInstance();
+		long breakMillis = 0;
+		long dayStart = Periods.getStart(Periods.DAY, startTime);
+		while (dayStart < endTime) {
+			long dayEnd = Periods.getEnd(Periods.DAY, dayStart);
+			cal.setTimeInMillis(dayStart);
+			breakMillis += getOverlap(cal.get(Calendar.DAY_OF_WEEK), dayStart,
+					startTime, Math.min(endTime, dayEnd));
+			dayStart = dayEnd;
+		}
+		return breakMillis;
+	}
+
+	/**
+	 * Returns the overlap of [startTime, endTime) with the breaks of the day
+	 * starting at midnight.
+	 *
+	 * @param dayOfWeek
+	 *            day of week of the day, as Calendar.DAY_OF_WEEK
+	 */
+	private long getOverlap(int dayOfWeek, long midnight, long startTime,
+			long endTime) {
+		long[] dayBreaks = breaks[dayOfWeek - 1];
+		long overlap = 0;
+		for (int i = 0; i < dayBreaks.length; i += 2) {
+			long start = Math.max(startTime, midnight + dayBreaks[i]);
+			long end = Math.min(endTime, midnight + dayBreaks[i + 1]);
+			if (end > start) {
+				overlap += end - start;
+			}
+		}
+		return overlap;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("BreakRules(");
+		for (int day = 0; day < 7; day++) {
+			if (day > 0) {
+				sb.append(", ");
+			}
+			sb.append(Arrays.toString(breaks[day]));
+		}
+		return sb.append(")").toString();
+	}
+}
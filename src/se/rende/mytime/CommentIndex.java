@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Keeps the comment dictionary that sessions refer to by comment_id, the
+ * comment_fts full-text index of it, and the comment_stat table with the
+ * number of live sessions of a project using a comment and the latest start
+ * of them. Searches the comments to suggest.
+ *
+ * The update methods are to be called within a transaction on the database.
+ *
+ * @author Dag Rende
+ */
+public class CommentIndex {
+	/** the columns of a comment search */
+	public static final String[] COMMENT_COLUMNS = { "_id", "comment", "uses",
+			"last_used" };
+	private static final String[] SESSION_COLUMNS = { "project_id",
+			"comment_id", "start" };
+	private static final String FIND_SQL = "select _id from comment where text=?";
+	private static final String INSERT_SQL = "insert into comment (text) values (?)";
+	private static final String INSERT_FTS_SQL = "insert into comment_fts (docid, comment) values (?, ?)";
+	private static final String INSERT_STAT_SQL = "insert or ignore into comment_stat "
+			+ "(project_id, comment_id) values (?, ?)";
+	private static final String USE_SQL = "update comment_stat "
+			+ "set uses = uses + 1, last_used = max(ifnull(last_used, 0), ?) "
+			+ "where project_id=? and comment_id=?";
+	private static final String UNUSE_SQL = "update comment_stat set uses = uses - 1 "
+			+ "where project_id=? and comment_id=?";
+	private static final String DELETE_UNUSED_SQL = "delete from comment_stat "
+			+ "where project_id=? and comment_id=? and uses <= 0";
+	private static final String RECENT_SQL = "select c._id, c.text comment, st.uses, st.last_used "
+			+ "from comment_stat st, comment c "
+			+ "where st.project_id=? and c._id=st.comment_id "
+			+ "order by st.last_used desc limit ?";
+	/**
+	 * The matching comments of the project. The matches are joined to the
+	 * comments of the project before the limit, so that matches of other
+	 * projects do not crowd them out.
+	 */
+	private static final String SEARCH_SQL = "select c._id, c.text comment, st.uses, st.last_used "
+			+ "from comment_fts f, comment_stat st, comment c "
+			+ "where comment_fts match ? and st.project_id=? "
+			+ "and st.comment_id=f.docid and c._id=st.comment_id "
+			+ "order by st.uses desc, st.last_used desc limit ?";
+	/**
+	 * The latest start of the live sessions of a project with a comment, by
+	 * the comment_id, project_id, start index of each session table.
+	 */
+	private static final String LAST_USED_SQL = "update comment_stat set last_used = max("
+			+ "ifnull((select max(start) from session "
+			+ "where comment_id=? and project_id=? and deleted=0), 0), "
+			+ "ifnull((select max(start) from session_archive "
+			+ "where comment_id=? and project_id=? and deleted=0), 0)) "
+			+ "where project_id=? and comment_id=?";
+	/** comments that no session refers to, deleted or not */
+	private static final String UNUSED_SQL = "select _id from comment "
+			+ "where _id not in (select comment_id from comment_stat) "
+			+ "and not exists (select 1 from session s where s.comment_id=comment._id) "
+			+ "and not exists (select 1 from session_archive a where a.comment_id=comment._id)";
+	private final StatementCache statementCache = new StatementCache(8);
+	/**
+	 * project id and comment id of the comments of removed sessions, whose
+	 * last use is found again by findLastUses
+	 */
+	private final List<long[]> removedUses = new ArrayList<long[]>();
+
+	/**
+	 * Returns session values with the comment replaced by the id of the
+	 * comment in the dictionary, adding it if new.
+	 *
+	 * @return values, or a changed copy if it has a comment
+	 */
+	public ContentValues toIds(SQLiteDatabase db, ContentValues values) {
+		if (!values.containsKey("comment")) {
+			return values;
+		}
+		ContentValues idValues = new ContentValues(values);
+		String comment = idValues.getAsString("comment");
+		idValues.remove("comment");
+		if (comment != null && comment.length() > 0) {
+			idValues.put("comment_id", getId(db, comment));
+		} else {
+			idValues.putNull("comment_id");
+		}
+		return idValues;
+	}
+
+	/**
+	 * Returns the id of a comment, adding it to the dictionary and the
+	 * full-text index if new.
+	 */
+	private long getId(SQLiteDatabase db, String comment) {
+		SQLiteStatement find = statementCache.get(db, FIND_SQL);
+		find.bindString(1, comment);
+		try {
+			return find.simpleQueryForLong();
+		} catch (SQLiteDoneException e) {
+			// new comment
+			SQLiteStatement insert = statementCache.get(db, INSERT_SQL);
+			insert.bindString(1, comment);
+			long id = insert.executeInsert();
+			SQLiteStatement insertFts = statementCache.get(db, INSERT_FTS_SQL);
+			insertFts.bindLong(1, id);
+			insertFts.bindString(2, comment);
+			insertFts.execute();
+			return id;
+		}
+	}
+
+	/**
+	 * Counts the comment of a new session.
+	 */
+	public void add(SQLiteDatabase db, Long projectId, Long commentId,
+			Long start) {
+		if (projectId != null && commentId != null) {
+			use(db, projectId, commentId, start != null ? start : 0);
+		}
+	}
+
+	/**
+	 * Counts the comments of the specified sessions.
+	 *
+	 * @param sessionIds
+	 *            as returned by SessionTotals.remove
+	 */
+	public void add(SQLiteDatabase db, long[] sessionIds) {
+		String[] selectionArgs = new String[1];
+		for (long sessionId : sessionIds) {
+			selectionArgs[0] = Long.toString(sessionId);
+			Cursor cursor = db.query(SessionArchive.ALL_SESSIONS,
+					SESSION_COLUMNS, "_id=?", selectionArgs, null, null, null);
+			try {
+				if (cursor.moveToNext() && !cursor.isNull(1)) {
+					use(db, cursor.getLong(0), cursor.getLong(1), cursor
+							.getLong(2));
+				}
+			} finally {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Stops counting the comments of the sessions matching the selection.
+	 * Call before the sessions are updated or deleted, and findLastUses
+	 * after.
+	 */
+	public void remove(SQLiteDatabase db, String selection,
+			String[] selectionArgs) {
+		Cursor cursor = db.query(SessionArchive.ALL_SESSIONS, SESSION_COLUMNS,
+				selection, selectionArgs, null, null, null);
+		try {
+			while (cursor.moveToNext()) {
+				if (!cursor.isNull(1)) {
+					execute(db, UNUSE_SQL, cursor.getLong(0), cursor.getLong(1));
+					execute(db, DELETE_UNUSED_SQL, cursor.getLong(0), cursor
+							.getLong(1));
+					removedUses.add(new long[] { cursor.getLong(0),
+							cursor.getLong(1) });
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Finds the last use of the comments of the removed sessions among the
+	 * sessions left, so that a deleted or moved session is no longer the
+	 * last use. Call after the removed sessions are updated or deleted.
+	 */
+	public void findLastUses(SQLiteDatabase db) {
+		for (long[] use : removedUses) {
+			long projectId = use[0];
+			long commentId = use[1];
+			execute(db, LAST_USED_SQL, commentId, projectId, commentId,
+					projectId, projectId, commentId);
+		}
+		removedUses.clear();
+	}
+
+	/**
+	 * Removes the comments that no session refers to from the dictionary and
+	 * the full-text index. Call after deleted sessions are purged.
+	 *
+	 * @return number of comments removed
+	 */
+	public int purge(SQLiteDatabase db) {
+		db.execSQL("delete from comment_fts where docid in (" + UNUSED_SQL + ")");
+		return db.delete("comment", "_id in (" + UNUSED_SQL + ")", null);
+	}
+
+	/**
+	 * Removes all comment counts of a project.
+	 */
+	public void removeProject(SQLiteDatabase db, long projectId) {
+		db.delete("comment_stat", "project_id=?", new String[] { Long
+				.toString(projectId) });
+	}
+
+	private void use(SQLiteDatabase db, long projectId, long commentId,
+			long start) {
+		execute(db, INSERT_STAT_SQL, projectId, commentId);
+		execute(db, USE_SQL, start, projectId, commentId);
+	}
+
+	/**
+	 * Moves the comments of the sessions to the dictionary. The comment
+	 * column of sessions is cleared.
+	 */
+	public void migrate(SQLiteDatabase db) {
+		for (String table : new String[] { "session", "session_archive" }) {
+			db.execSQL("insert or ignore into comment (text) select comment from "
+					+ table + " where comment<>''");
+			db.execSQL("update " + table
+					+ " set comment_id=(select _id from comment where text="
+					+ table + ".comment), comment=null where comment is not null");
+		}
+	}
+
+	/**
+	 * Recalculates the comment counts, and indexes all comments.
+	 */
+	public void rebuild(SQLiteDatabase db) {
+		db.execSQL("delete from comment_stat");
+		db.execSQL("insert into comment_stat (project_id, comment_id, uses, last_used) "
+				+ "select project_id, comment_id, count(*), max(start) from "
+				+ SessionArchive.ALL_SESSIONS + " "
+				+ "where comment_id is not null group by project_id, comment_id");
+		db.execSQL("delete from comment_fts");
+		db.execSQL("insert into comment_fts (docid, comment) select _id, text from comment");
+	}
+
+	/**
+	 * Finds the comments of a project. With text, the comments that have
+	 * words starting with the words of text, most used first. Without text,
+	 * the comments most recently used.
+	 *
+	 * @param text
+	 *            words typed, null or no words for the recent comments
+	 * @param limit
+	 *            max number of comments
+	 * @return cursor with COMMENT_COLUMNS
+	 */
+	public Cursor search(SQLiteDatabase db, long projectId, String text,
+			int limit) {
+		String match = getMatch(text);
+		if (match == null) {
+			return db.rawQuery(RECENT_SQL, new String[] {
+					Long.toString(projectId), Integer.toString(limit) });
+		}
+		return db.rawQuery(SEARCH_SQL, new String[] { match,
+				Long.toString(projectId), Integer.toString(limit) });
+	}
+
+	/**
+	 * Returns a full-text query matching words starting with each word of
+	 * text, or null if text has no words.
+	 */
+	static String getMatch(String text) {
+		if (text == null) {
+			return null;
+		}
+		StringBuilder match = new StringBuilder();
+		for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+			if (word.length() > 0) {
+				if (match.length() > 0) {
+					match.append(' ');
+				}
+				match.append(word).append('*');
+			}
+		}
+		return match.length() > 0 ? match.toString() : null;
+	}
+
+	/**
+	 * Releases the compiled statements.
+	 */
+	public void close() {
+		statementCache.clear();
+	}
+
+	/**
+	 * Runs a cached statement with the parameters bound in order.
+	 */
+	private void execute(SQLiteDatabase db, String sql, long... args) {
+		SQLiteStatement statement = statementCache.get(db, sql);
+		for (int i = 0; i < args.length; i++) {
+			statement.bindLong(i + 1, args[i]);
+		}
+		statement.execute();
+	}
+}
@@ -32,8 +32,35 @@ public interface Constants extends BaseColumns {
 			+ AUTHORITY + "/project");
 	public static final Uri CONTENT_URI_SESSION = Uri.parse("content://"
 			+ AUTHORITY + "/session");
+	/**
+	 * Work time per project and day, week or month. Updating this uri
+	 * recalculates all totals from the sessions.
+	 */
+	public static final Uri CONTENT_URI_TOTAL = Uri.parse("content://"
+			+ AUTHORITY + "/total");
+	/**
+	 * Updating this uri moves the sessions older than the archive setting to
+	 * the archive table. Archived sessions are read as other sessions.
+	 */
+	public static final Uri CONTENT_URI_ARCHIVE = Uri.parse("content://"
+			+ AUTHORITY + "/archive");
 
 	public static final String INTENT_EXTRA_LOCALE_PROJECT_ID = "se.rende.mytime.locale.project_id";
 	public static final String INTENT_EXTRA_LOCALE_IS_START = "se.rende.mytime.locale.is_start";
 	public static final String INTENT_DB_UPDATE_ACTION = "se.rende.mytime.db_update_action";
+	/** The project changed, in a INTENT_DB_UPDATE_ACTION broadcast */
+	public static final String INTENT_EXTRA_PROJECT_ID = "se.rende.mytime.project_id";
+	/**
+	 * Sent by the provider when sessions or their totals have changed. Has
+	 * INTENT_EXTRA_PROJECT_ID if sessions of one project changed only, and
+	 * INTENT_EXTRA_SESSION_ID if one session changed only. Then the
+	 * interval extras tell the ended interval it had before the change and
+	 * the one it has after, each missing if it was not or is not ended.
+	 */
+	public static final String INTENT_SESSION_CHANGE_ACTION = "se.rende.mytime.session_change_action";
+	public static final String INTENT_EXTRA_SESSION_ID = "se.rende.mytime.session_id";
+	public static final String INTENT_EXTRA_OLD_START = "se.rende.mytime.old_start";
+	public static final String INTENT_EXTRA_OLD_END = "se.rende.mytime.old_end";
+	public static final String INTENT_EXTRA_NEW_START = "se.rende.mytime.new_start";
+	public static final String INTENT_EXTRA_NEW_END = "se.rende.mytime.new_end";
 }
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import static se.rende.mytime.Constants.CONTENT_URI_PROJECT;
+import static se.rende.mytime.Constants.CONTENT_URI_TOTAL;
+
+import java.text.NumberFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.app.ListActivity;
+import android.content.BroadcastReceiver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
+
+/**
+ * This week, this month and all time totals of all projects. The totals of
+ * all projects are read in one scan, ordered by project, on a background
+ * thread, that hands the rows of each project to a small pool of workers
+ * to sum. Each project is shown as soon as it is summed.
+ *
+ * @author Dag Rende
+ */
+public class Dashboard extends ListActivity {
+	private static final String[] FROM = { "name", "_id", "_id", "_id" };
+	private static final int[] TO = { R.id.name, R.id.week_total,
+			R.id.month_total, R.id.all_total };
+	private static final String[] TOTAL_COLUMNS = { "project_id", "kind",
+			"period_start", "work_ms" };
+	private static final int MAX_WORKERS = 4;
+	private static final NumberFormat hoursFormat = NumberFormat.getInstance();
+	private final Handler handler = new Handler();
+	private final ExecutorService scanner = Executors.newSingleThreadExecutor();
+	private final ExecutorService workers = Executors.newFixedThreadPool(Math
+			.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime()
+					.availableProcessors())));
+	private final LongLongMap weekTotals = new LongLongMap();
+	private final LongLongMap monthTotals = new LongLongMap();
+	private final LongLongMap allTotals = new LongLongMap();
+	/** projects summed by the current scan, as keys */
+	private final LongLongMap summed = new LongLongMap();
+	/** number of projects the current scan found, -1 until it is done */
+	private int scannedCount = -1;
+	/** changed by each scan, so that results of earlier scans are thrown away */
+	private int generation;
+	private boolean destroyed;
+	private TextView totalView;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.dashboard);
+		hoursFormat.setMaximumFractionDigits(2);
+		totalView = (TextView) findViewById(R.id.total);
+		SimpleCursorAdapter adapter = new SimpleCursorAdapter(this,
+				R.layout.dashboard_list_item, managedQuery(CONTENT_URI_PROJECT,
+						new String[] { "name", "_id" }, null, null, "name asc"),
+				FROM, TO);
+		adapter.setViewBinder(new DashboardViewBinder());
+		setListAdapter(adapter);
+		registerReceiver(sessionChangeReceiver, new IntentFilter(
+				Constants.INTENT_SESSION_CHANGE_ACTION));
+		scan();
+	}
+
+	@Override
+	protected void onDestroy() {
+		destroyed = true;
+		unregisterReceiver(sessionChangeReceiver);
+		scanner.shutdownNow();
+		workers.shutdownNow();
+		super.onDestroy();
+	}
+
+	@Override
+	protected void onListItemClick(ListView l, View v, int position, long id) {
+		super.onListItemClick(l, v, position, id);
+		Intent intent = new Intent(this, Sessions.class);
+		intent.setData(ContentUris.withAppendedId(CONTENT_URI_PROJECT, id));
+		startActivity(intent);
+	}
+
+	/**
+	 * Reads the totals of all projects again, showing each project when it
+	 * is summed.
+	 */
+	private void scan() {
+		final int scanGeneration = ++generation;
+		summed.clear();
+		scannedCount = -1;
+		showTotals();
+		final long now = System.currentTimeMillis();
+		final long weekStart = Periods.getStart(Periods.WEEK, now);
+		final long monthStart = Periods.getStart(Periods.MONTH, now);
+		final WorkRules workRules = Settings.getWorkRules(this);
+		scanner.execute(new Runnable() {
+			public void run() {
+				// the month totals give the month and all time, and the week
+				// total is of this week only
+				Cursor cursor = getContentResolver().query(
+						CONTENT_URI_TOTAL,
+						TOTAL_COLUMNS,
+						"kind=? or (kind=? and period_start=?)",
+						new String[] { Integer.toString(Periods.MONTH),
+								Integer.toString(Periods.WEEK),
+								Long.toString(weekStart) }, "project_id");
+				int projectCount = 0;
+				try {
+					int rowCount = cursor.getCount();
+					long[] kinds = new long[rowCount];
+					long[] periodStarts = new long[rowCount];
+					long[] workMillis = new long[rowCount];
+					long projectId = -1;
+					int first = 0;
+					for (int i = 0; cursor.moveToNext(); i++) {
+						if (i > first && cursor.getLong(0) != projectId) {
+							sum(scanGeneration, projectId, kinds, periodStarts,
+									workMillis, first, i, monthStart,
+									workRules);
+							projectCount++;
+							first = i;
+						}
+						projectId = cursor.getLong(0);
+						kinds[i] = cursor.getLong(1);
+						periodStarts[i] = cursor.getLong(2);
+						workMillis[i] = cursor.getLong(3);
+					}
+					if (rowCount > first) {
+						sum(scanGeneration, projectId, kinds, periodStarts,
+								workMillis, first, rowCount, monthStart,
+								workRules);
+						projectCount++;
+					}
+				} finally {
+					cursor.close();
+				}
+				final int count = projectCount;
+				handler.post(new Runnable() {
+					public void run() {
+						if (!destroyed && scanGeneration == generation) {
+							scannedCount = count;
+							showTotals();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Sums the total rows [from, to) of one project on a worker, rounded as
+	 * the work rules tell, and shows them on the UI thread. The rows are
+	 * only read by the worker after this.
+	 */
+	private void sum(final int scanGeneration, final long projectId,
+			final long[] kinds, final long[] periodStarts,
+			final long[] workMillis, final int from, final int to,
+			final long monthStart, final WorkRules workRules) {
+		workers.execute(new Runnable() {
+			public void run() {
+				long week = 0;
+				long month = 0;
+				long all = 0;
+				for (int i = from; i < to; i++) {
+					if (kinds[i] == Periods.WEEK) {
+						week += workMillis[i];
+					} else {
+						all += workMillis[i];
+						if (periodStarts[i] == monthStart) {
+							month += workMillis[i];
+						}
+					}
+				}
+				final long weekMillis = workRules.getTotalMillis(Periods.WEEK,
+						week);
+				final long monthMillis = workRules.getTotalMillis(
+						Periods.MONTH, month);
+				final long allMillis = workRules.getTotalMillis(Periods.YEAR,
+						all);
+				handler.post(new Runnable() {
+					public void run() {
+						if (destroyed || scanGeneration != generation) {
+							return;
+						}
+						weekTotals.put(projectId, weekMillis);
+						monthTotals.put(projectId, monthMillis);
+						allTotals.put(projectId, allMillis);
+						summed.put(projectId, 0);
+						showTotals();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Returns true if all projects of the current scan are summed.
+	 */
+	private boolean isDone() {
+		return scannedCount != -1 && summed.size() == scannedCount;
+	}
+
+	/**
+	 * Shows the totals summed so far, in the list and in the total of all
+	 * projects.
+	 */
+	private void showTotals() {
+		((SimpleCursorAdapter) getListAdapter()).notifyDataSetChanged();
+		Cursor cursor = ((SimpleCursorAdapter) getListAdapter()).getCursor();
+		long week = 0;
+		long month = 0;
+		long all = 0;
+		for (int i = 0; cursor.moveToPosition(i); i++) {
+			long projectId = cursor.getLong(1);
+			week += weekTotals.get(projectId, 0);
+			month += monthTotals.get(projectId, 0);
+			all += allTotals.get(projectId, 0);
+		}
+		totalView.setText(getString(R.string.share_period_this_week) + " "
+				+ formatTotal(week, isDone()) + "  "
+				+ getString(R.string.share_period_this_month) + " "
+				+ formatTotal(month, isDone()) + "  "
+				+ getString(R.string.dashboard_all_time) + " "
+				+ formatTotal(all, isDone()));
+	}
+
+	/**
+	 * Returns work time as hours, or a placeholder if not summed yet.
+	 */
+	private String formatTotal(long workMillis, boolean known) {
+		if (!known) {
+			return getString(R.string.total_placeholder);
+		}
+		return hoursFormat.format(workMillis / 3600000d)
+				+ getString(R.string.h);
+	}
+
+	/**
+	 * Shows the totals of a project by the view they are shown in.
+	 */
+	public class DashboardViewBinder implements SimpleCursorAdapter.ViewBinder {
+		public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+			if (columnIndex != 1) {
+				return false;
+			}
+			long projectId = cursor.getLong(1);
+			// projects without totals are known once all are summed
+			boolean known = summed.containsKey(projectId) || isDone();
+			TextView textView = (TextView) view;
+			switch (view.getId()) {
+			case R.id.week_total:
+				textView.setText(getString(R.string.share_period_this_week)
+						+ " "
+						+ formatTotal(weekTotals.get(projectId, 0), known));
+				break;
+			case R.id.month_total:
+				textView.setText(getString(R.string.share_period_this_month)
+						+ " "
+						+ formatTotal(monthTotals.get(projectId, 0), known));
+				break;
+			case R.id.all_total:
+				textView.setText(getString(R.string.dashboard_all_time) + " "
+						+ formatTotal(allTotals.get(projectId, 0), known));
+				break;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Sums the totals again when sessions change.
+	 */
+	private BroadcastReceiver sessionChangeReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			weekTotals.clear();
+			monthTotals.clear();
+			allTotals.clear();
+			scan();
+		}
+	};
+}
@@ -21,7 +21,8 @@ public final class FireReceiver extends BroadcastReceiver {
 			}
 			
 			if (changed) {
-				context.sendBroadcast(new Intent(Constants.INTENT_DB_UPDATE_ACTION));
+				context.sendBroadcast(new Intent(Constants.INTENT_DB_UPDATE_ACTION)
+						.putExtra(Constants.INTENT_EXTRA_PROJECT_ID, projectId));
 			}
 		}
 	}
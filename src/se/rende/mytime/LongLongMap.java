@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+/**
+ * Map from long to long, kept in two arrays by open addressing with linear
+ * probing, so that no key or value is boxed. Used for the totals of
+ * sessions, in milliseconds by session or period start.
+ *
+ * Not thread safe.
+ *
+ * @author Dag Rende
+ */
+public final class LongLongMap {
+	private static final int MIN_CAPACITY = 16;
+	private long[] keys;
+	private long[] values;
+	private boolean[] used;
+	private int size;
+
+	public LongLongMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of entries the map holds without growing
+	 */
+	public LongLongMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(long key) {
+		return used[indexOf(key)];
+	}
+
+	/**
+	 * Returns the value of key, or defaultValue if key has none.
+	 */
+	public long get(long key, long defaultValue) {
+		int i = indexOf(key);
+		return used[i] ? values[i] : defaultValue;
+	}
+
+	public void put(long key, long value) {
+		int i = indexOf(key);
+		if (!used[i]) {
+			if ((size + 1) * 4 > keys.length * 3) {
+				grow();
+				i = indexOf(key);
+			}
+			used[i] = true;
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+	}
+
+	/**
+	 * Removes the entry of key, if any.
+	 */
+	public void remove(long key) {
+		int i = indexOf(key);
+		if (!used[i]) {
+			return;
+		}
+		used[i] = false;
+		size--;
+		// move the following entries of the probe run back into the gap
+		int mask = keys.length - 1;
+		int gap = i;
+		for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+			int home = hash(keys[j]) & mask;
+			// j may fill the gap if its home is not in (gap, j], cyclically
+			if (gap <= j ? (home <= gap || home > j) : (home <= gap && home > j)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				used[gap] = true;
+				used[j] = false;
+				gap = j;
+			}
+		}
+	}
+
+	/**
+	 * Adds delta to the value of key, 0 if it has none.
+	 */
+	public void add(long key, long delta) {
+		put(key, get(key, 0) + delta);
+	}
+
+	/**
+	 * Puts all entries of other in this map.
+	 */
+	public void putAll(LongLongMap other) {
+		for (int i = 0; i < other.keys.length; i++) {
+			if (other.used[i]) {
+				put(other.keys[i], other.values[i]);
+			}
+		}
+	}
+
+	public void clear() {
+		java.util.Arrays.fill(used, false);
+		size = 0;
+	}
+
+	/**
+	 * Returns the index of key, or of the free slot it would be put in.
+	 */
+	private int indexOf(long key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (used[i] && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(oldKeys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				int j = indexOf(oldKeys[i]);
+				used[j] = true;
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		used = new boolean[capacity];
+	}
+}
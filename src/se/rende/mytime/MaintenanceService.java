@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import android.app.IntentService;
+import android.content.ContentValues;
+import android.content.Intent;
+
+/**
+ * Rebuilds the session totals and archives old sessions, one request at a
+ * time on its own thread. As a started service, the process is kept while
+ * it works, also when no activity is shown, such as after a time zone
+ * change.
+ *
+ * @author Dag Rende
+ */
+public class MaintenanceService extends IntentService {
+	public static final String ACTION_REBUILD_TOTALS = "se.rende.mytime.action.REBUILD_TOTALS";
+	public static final String ACTION_ARCHIVE = "se.rende.mytime.action.ARCHIVE";
+
+	public MaintenanceService() {
+		super("MaintenanceService");
+	}
+
+	@Override
+	protected void onHandleIntent(Intent intent) {
+		if (ACTION_REBUILD_TOTALS.equals(intent.getAction())) {
+			getContentResolver().update(Constants.CONTENT_URI_TOTAL,
+					new ContentValues(), null, null);
+			Settings.setTotalsStale(this, false);
+		} else if (ACTION_ARCHIVE.equals(intent.getAction())) {
+			getContentResolver().update(Constants.CONTENT_URI_ARCHIVE,
+					new ContentValues(), null, null);
+		}
+	}
+}
@@ -98,6 +98,15 @@ public class MyTime extends ListActivity {
 
 		scanPlugIns();
 	    dbUpdateFilter = new IntentFilter(Constants.INTENT_DB_UPDATE_ACTION);
+
+		if (savedInstanceState == null && Settings.getArchiveMonths(this) > 0) {
+			// sessions that got older than the archive setting since last start
+			Settings.archiveSessions(this);
+		}
+		if (savedInstanceState == null) {
+			// if the process was killed before totals were rebuilt
+			Settings.rebuildStaleTotals(this);
+		}
 	}
 
 	/**
@@ -210,6 +219,12 @@ public class MyTime extends ListActivity {
 		case R.id.addProj:
 			addProject();
 			return true;
+		case R.id.dashboard_menu:
+			startActivity(new Intent(this, Dashboard.class));
+			return true;
+		case R.id.overlaps_menu:
+			startActivity(new Intent(this, SessionOverlaps.class));
+			return true;
 		case R.id.settings_menu:
 			startActivity(new Intent(this, Settings.class));
 			return true;
@@ -256,13 +271,17 @@ public class MyTime extends ListActivity {
 	@Override
 	protected void onResume() {
 		registerReceiver(dbUpdateReceiver, dbUpdateFilter);
-		refreshList();
+		refreshRunIndicator();
 		super.onResume();
 	}
 
-	private void refreshList() {
+	/**
+	 * Shows which project is running. The project list cursor is requeried
+	 * by the provider notifications, so only the views are redrawn.
+	 */
+	private void refreshRunIndicator() {
 		runningProjectId = getRunningProjectId();
-		projectListCursor.requery();
+		getListView().invalidateViews();
 	}
 
 	public class ProjectListViewBinder implements
@@ -373,7 +392,7 @@ public class MyTime extends ListActivity {
 	private BroadcastReceiver dbUpdateReceiver = new BroadcastReceiver() {
 	    @Override
 	    public void onReceive(Context context, Intent intent) {
-			refreshList();
+			refreshRunIndicator();
 	    }
 	};
 }
\ No newline at end of file
@@ -20,14 +20,28 @@ import static android.provider.BaseColumns._ID;
 import static se.rende.mytime.Constants.AUTHORITY;
 import static se.rende.mytime.Constants.CONTENT_URI_PROJECT;
 import static se.rende.mytime.Constants.CONTENT_URI_SESSION;
+import static se.rende.mytime.Constants.INTENT_SESSION_CHANGE_ACTION;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.text.TextUtils;
+import android.util.Log;
 
 /**
  * Defines the database data.
@@ -35,17 +49,62 @@ import android.text.TextUtils;
  * @author Dag Rende
  */
 public class MyTimeContentProvider extends ContentProvider {
+	private static final String TAG = "MyTimeContentProvider";
 	private static final int PROJECTS = 1;
 	private static final int PROJECTS_ID = 2;
 	private static final int SESSIONS = 3;
 	private static final int SESSIONS_ID = 4;
+	private static final int TOTALS = 5;
+	private static final int PROJECT_SESSIONS = 6;
+	private static final int PROJECT_SESSIONS_ID = 7;
+	private static final int PROJECT_TOTALS = 8;
+	private static final int ARCHIVE = 9;
+	private static final int PROJECT_COMMENTS = 10;
+	/** query parameter of a project totals uri, day, week or month */
+	public static final String PARAM_GRANULARITY = "granularity";
+	/**
+	 * query parameter of a project totals uri, min period start, and of a
+	 * sessions uri, min session start
+	 */
+	public static final String PARAM_FROM = "from";
+	/** query parameter of a project totals uri, period starts before this */
+	public static final String PARAM_TO = "to";
+	/** query parameter of a sessions uri, sessions start before this */
+	public static final String PARAM_BEFORE = "before";
+	/**
+	 * query parameter of a sessions uri with PARAM_BEFORE, sessions starting
+	 * at the before time are included if their id is less than this, so that
+	 * pages ordered by start desc, _id desc follow each other
+	 */
+	public static final String PARAM_BEFORE_ID = "before_id";
+	/**
+	 * query parameter of a sessions uri, max number of sessions, and of a
+	 * comments uri, max number of comments
+	 */
+	public static final String PARAM_LIMIT = "limit";
+	/** query parameter of a comments uri, the words the comments are to have words starting with */
+	public static final String PARAM_QUERY = "q";
+	/** number of comments returned by a comments uri without limit parameter */
+	private static final int DEFAULT_COMMENT_LIMIT = 20;
 	private static final String PROJECT_CONTENT_TYPE = "vnd.android.cursor.dir/vnd.se.rende.mytime.project";
 	private static final String PROJECT_CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.se.rende.mytime.project";
 	private static final String SESSION_CONTENT_TYPE = "vnd.android.cursor.dir/vnd.se.rende.mytime.session";
 	private static final String SESSION_CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.se.rende.mytime.session";
+	private static final String TOTAL_CONTENT_TYPE = "vnd.android.cursor.dir/vnd.se.rende.mytime.total";
+	private static final String COMMENT_CONTENT_TYPE = "vnd.android.cursor.dir/vnd.se.rende.mytime.comment";
 
 	private MyTimeData myTimeData;
+	private SessionTotals sessionTotals;
+	private final SessionArchive sessionArchive = new SessionArchive();
+	private final CommentIndex commentIndex = new CommentIndex();
+	/** runs the purges of deleted rows, one at a time */
+	private final ExecutorService purgeExecutor = Executors.newSingleThreadExecutor();
+	/** number of rows removed in each purge transaction */
+	private static final int PURGE_CHUNK_SIZE = 200;
+	private boolean purgeScheduled;
 	private UriMatcher uriMatcher;
+	/** Uris changed by the batch running in this thread, null when no batch is running */
+	private final ThreadLocal<Set<Uri>> batchChangedUris = new ThreadLocal<Set<Uri>>();
 
 	@Override
 	public boolean onCreate() {
@@ -54,7 +113,16 @@ public class MyTimeContentProvider extends ContentProvider {
 		uriMatcher.addURI(AUTHORITY, "project/#", PROJECTS_ID);
 		uriMatcher.addURI(AUTHORITY, "session", SESSIONS);
 		uriMatcher.addURI(AUTHORITY, "session/#", SESSIONS_ID);
+		uriMatcher.addURI(AUTHORITY, "total", TOTALS);
+		uriMatcher.addURI(AUTHORITY, "session/project/#", PROJECT_SESSIONS);
+		uriMatcher.addURI(AUTHORITY, "session/project/#/#", PROJECT_SESSIONS_ID);
+		uriMatcher.addURI(AUTHORITY, "project/#/totals", PROJECT_TOTALS);
+		uriMatcher.addURI(AUTHORITY, "archive", ARCHIVE);
+		uriMatcher.addURI(AUTHORITY, "project/#/comment", PROJECT_COMMENTS);
 		myTimeData = new MyTimeData(getContext());
+		sessionTotals = new SessionTotals(getContext());
+		// rows deleted but not purged before the process ended
+		schedulePurge();
 		return true;
 	}
 
@@ -66,21 +134,69 @@ public class MyTimeContentProvider extends ContentProvider {
 		if (match == PROJECTS_ID || match == PROJECTS) {
 			if (match == PROJECTS_ID) {
 				long id = Long.parseLong(uri.getPathSegments().get(1));
-				selection = appendRowId(selection, id);
+				selection = appendRowId(selection);
+				selectionArgs = appendIdArg(selectionArgs, id);
 			}
 			// Get the database and run the query
 			SQLiteDatabase db = myTimeData.getReadableDatabase();
-			cursor = db.query("project", projection, selection,
-					selectionArgs, null, null, orderBy);
-		} else if (match == SESSIONS_ID || match == SESSIONS) {
-			if (match == SESSIONS_ID) {
-				long id = Long.parseLong(uri.getPathSegments().get(1));
-				selection = appendRowId(selection, id);
+			cursor = db.query("project", projection, appendTest("deleted=0",
+					selection), selectionArgs, null, null, orderBy);
+		} else if (isSessionMatch(match)) {
+			// a page of sessions is given by the start and id of the last
+			// session of the previous page, to be read from the start index
+			String before = uri.getQueryParameter(PARAM_BEFORE);
+			String beforeId = uri.getQueryParameter(PARAM_BEFORE_ID);
+			if (before != null && beforeId != null) {
+				// start<? or (start=? and _id<?), with a start range the
+				// index can seek to
+				selection = appendTest("start<=? and (start<? or _id<?)",
+						selection);
+				// each arg is put first, so the last one goes in first
+				selectionArgs = appendArg(appendArg(appendArg(selectionArgs,
+						beforeId), before), before);
+			} else if (before != null) {
+				selection = appendTest("start<?", selection);
+				selectionArgs = appendArg(selectionArgs, before);
 			}
-			// Get the database and run the query
+			long from = getLongParameter(uri, PARAM_FROM, 0);
+			if (from != 0) {
+				selection = appendTest("start>=?", selection);
+				selectionArgs = appendArg(selectionArgs, Long.toString(from));
+			}
+			// Get the database and run the query, on the archived sessions
+			// too unless all sessions from the start asked for are newer
+			SQLiteDatabase db = myTimeData.getReadableDatabase();
+			cursor = db.query(sessionArchive.getTable(db, from), projection,
+					getSessionSelection(match, selection),
+					getSessionSelectionArgs(uri, match, selectionArgs), null,
+					null, orderBy, uri.getQueryParameter(PARAM_LIMIT));
+		} else if (match == TOTALS) {
 			SQLiteDatabase db = myTimeData.getReadableDatabase();
-			cursor = db.query("session", projection, selection,
+			cursor = db.query("session_total", projection, selection,
 					selectionArgs, null, null, orderBy);
+		} else if (match == PROJECT_TOTALS) {
+			long projectId = Long.parseLong(uri.getPathSegments().get(1));
+			String granularity = uri.getQueryParameter(PARAM_GRANULARITY);
+			SQLiteDatabase db = myTimeData.getReadableDatabase();
+			cursor = sessionTotals.query(db, projection, projectId,
+					Periods.getKind(granularity != null ? granularity
+							: Periods.NAMES[Periods.DAY]), getLongParameter(
+							uri, PARAM_FROM, 0), getLongParameter(uri,
+							PARAM_TO, Long.MAX_VALUE), orderBy);
+			// the totals change with the sessions of the project
+			cursor.setNotificationUri(getContext().getContentResolver(),
+					getProjectSessionsUri(projectId));
+			return cursor;
+		} else if (match == PROJECT_COMMENTS) {
+			long projectId = Long.parseLong(uri.getPathSegments().get(1));
+			SQLiteDatabase db = myTimeData.getReadableDatabase();
+			cursor = commentIndex.search(db, projectId, uri
+					.getQueryParameter(PARAM_QUERY), (int) getLongParameter(
+					uri, PARAM_LIMIT, DEFAULT_COMMENT_LIMIT));
+			// the comments change with the sessions of the project
+			cursor.setNotificationUri(getContext().getContentResolver(),
+					getProjectSessionsUri(projectId));
+			return cursor;
 		} else {
 			throw new IllegalArgumentException(getContext().getString(R.string.alert_message_unknown_uri) + " " + uri + " match=" + match);
 		}
@@ -99,9 +215,18 @@ public class MyTimeContentProvider extends ContentProvider {
 		case PROJECTS_ID:
 			return PROJECT_CONTENT_ITEM_TYPE;
 		case SESSIONS:
+		case PROJECT_SESSIONS:
 			return SESSION_CONTENT_TYPE;
 		case SESSIONS_ID:
+		case PROJECT_SESSIONS_ID:
 			return SESSION_CONTENT_ITEM_TYPE;
+		case TOTALS:
+		case PROJECT_TOTALS:
+			return TOTAL_CONTENT_TYPE;
+		case ARCHIVE:
+			return SESSION_CONTENT_TYPE;
+		case PROJECT_COMMENTS:
+			return COMMENT_CONTENT_TYPE;
 		default:
 			throw new IllegalArgumentException(getContext().getString(R.string.alert_message_unknown_uri) + " " + uri);
 		}
@@ -109,27 +234,117 @@ public class MyTimeContentProvider extends ContentProvider {
 
 	@Override
 	public Uri insert(Uri uri, ContentValues values) {
-		Uri newUri = null;
 		SQLiteDatabase db = myTimeData.getWritableDatabase();
+		SessionChanges changes = new SessionChanges();
+		Uri newUri;
+		db.beginTransaction();
+		try {
+			newUri = insertRow(db, uri, values, changes);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
 
+		// Notify any watchers of the change
+		if (changes.isEmpty()) {
+			notifyChange(newUri);
+		} else {
+			notifyChanges(changes);
+		}
+		return newUri;
+	}
+
+	/**
+	 * Inserts all rows in one transaction, and notifies watchers once when
+	 * all are inserted.
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		SQLiteDatabase db = myTimeData.getWritableDatabase();
+		SessionChanges changes = new SessionChanges();
+		db.beginTransaction();
+		try {
+			for (ContentValues rowValues : values) {
+				insertRow(db, uri, rowValues, changes);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		// Notify any watchers of the change
+		if (changes.isEmpty()) {
+			notifyChange(uri);
+		} else {
+			notifyChanges(changes);
+		}
+		return values.length;
+	}
+
+	/**
+	 * Applies all operations in one transaction. The change notifications of
+	 * the operations are collected and sent once per uri when the batch is
+	 * done.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(
+			ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		SQLiteDatabase db = myTimeData.getWritableDatabase();
+		Set<Uri> changedUris = new HashSet<Uri>();
+		batchChangedUris.set(changedUris);
+		db.beginTransaction();
+		try {
+			ContentProviderResult[] results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+			return results;
+		} finally {
+			db.endTransaction();
+			batchChangedUris.set(null);
+			for (Uri changedUri : changedUris) {
+				notifyChange(changedUri);
+			}
+			if (!changedUris.isEmpty()) {
+				getContext().sendBroadcast(new Intent(INTENT_SESSION_CHANGE_ACTION));
+			}
+		}
+	}
+
+	/**
+	 * Inserts a row without notifying any watchers. Sessions are added to the
+	 * totals, so call within a transaction.
+	 * 
+	 * @param changes where an inserted session is noted
+	 * @return uri of the new row
+	 */
+	private Uri insertRow(SQLiteDatabase db, Uri uri, ContentValues values,
+			SessionChanges changes) {
 		// Validate the requested uri
-		if (uriMatcher.match(uri) == PROJECTS) {
-			// Insert into database
-			long id = db.insertOrThrow("project", null, values);
-			
-			// Notify any watchers of the change
-			newUri = ContentUris.withAppendedId(CONTENT_URI_PROJECT, id);
-		} else if (uriMatcher.match(uri) == SESSIONS) {	
-			// Insert into database
+		switch (uriMatcher.match(uri)) {
+		case PROJECTS:
+			return ContentUris.withAppendedId(CONTENT_URI_PROJECT,
+					db.insertOrThrow("project", null, values));
+		case PROJECT_SESSIONS:
+			values = new ContentValues(values);
+			values.put("project_id", getSessionsProjectId(uri));
+			// fall through
+		case SESSIONS:
+			values = commentIndex.toIds(db, values);
 			long id = db.insertOrThrow("session", null, values);
-			
-			// Notify any watchers of the change
-			newUri = ContentUris.withAppendedId(CONTENT_URI_SESSION, id);
-		} else {
+			Long projectId = values.getAsLong("project_id");
+			sessionTotals.add(db, id, projectId, values.getAsLong("start"),
+					values.getAsLong("end"));
+			commentIndex.add(db, projectId, values.getAsLong("comment_id"),
+					values.getAsLong("start"));
+			changes.add(projectId, id);
+			if (values.getAsLong("start") != null && values.getAsLong("end") != null) {
+				changes.setNewInterval(values.getAsLong("start"), values
+						.getAsLong("end"));
+			}
+			return ContentUris.withAppendedId(getProjectSessionsUri(projectId), id);
+		default:
 			throw new IllegalArgumentException(getContext().getString(R.string.alert_message_unknown_uri) + " " + uri);
 		}
-		getContext().getContentResolver().notifyChange(newUri, null);
-		return newUri;
 	}
 
 	@Override
@@ -137,29 +352,35 @@ public class MyTimeContentProvider extends ContentProvider {
 		SQLiteDatabase db = myTimeData.getWritableDatabase();
 		int count;
 		long id;
-		switch (uriMatcher.match(uri)) {
+		int match = uriMatcher.match(uri);
+		switch (match) {
 		case PROJECTS:
-			count = db.delete("project", selection, selectionArgs);
+			count = deleteProjects(db, selection, selectionArgs);
+			// their sessions are gone too
+			notifyChange(CONTENT_URI_SESSION);
 			break;
 		case PROJECTS_ID:
 			id = Long.parseLong(uri.getPathSegments().get(1));
-			db.delete("session", "project_id=" + id, null);
-			String whereClause = appendRowId(selection, id);
-			count = db.delete("project", whereClause, selectionArgs);
+			count = deleteProjects(db, appendRowId(selection), appendIdArg(
+					selectionArgs, id));
+			// the project uri covers its sessions, also tell session table watchers
+			notifyChange(CONTENT_URI_SESSION);
 			break;
 		case SESSIONS:
-			count = db.delete("session", selection, selectionArgs);
-			break;
 		case SESSIONS_ID:
-			id = Long.parseLong(uri.getPathSegments().get(1));
-			count = db.delete("session", appendRowId(selection, id), selectionArgs);
-			break;
+		case PROJECT_SESSIONS:
+		case PROJECT_SESSIONS_ID:
+			SessionChanges changes = new SessionChanges();
+			count = deleteSessions(db, getSessionSelection(match, selection),
+					getSessionSelectionArgs(uri, match, selectionArgs), changes);
+			notifyChanges(changes);
+			return count;
 		default:
 			throw new IllegalArgumentException(getContext().getString(R.string.alert_message_unknown_uri) + " " + uri);
 		}
 
 		// Notify any watchers of the change
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri);
 		return count;
 	}
 
@@ -169,39 +390,409 @@ public class MyTimeContentProvider extends ContentProvider {
 		SQLiteDatabase db = myTimeData.getWritableDatabase();
 		int count;
 		long id;
-		switch (uriMatcher.match(uri)) {
+		int match = uriMatcher.match(uri);
+		switch (match) {
 		case PROJECTS:
 			count = db.update("project", values, selection, selectionArgs);
 			break;
 		case PROJECTS_ID:
 			id = Long.parseLong(uri.getPathSegments().get(1));
-			count = db.update("project", values, appendRowId(selection, id),
-					selectionArgs);
+			count = db.update("project", values, appendRowId(appendTest(
+					"deleted=0", selection)), appendIdArg(selectionArgs, id));
 			break;
 		case SESSIONS:
-			count = db.update("session", values, selection, selectionArgs);
-			break;
 		case SESSIONS_ID:
-			id = Long.parseLong(uri.getPathSegments().get(1));
-			count = db.update("session", values, appendRowId(selection, id),
-					selectionArgs);
+		case PROJECT_SESSIONS:
+		case PROJECT_SESSIONS_ID:
+			SessionChanges changes = new SessionChanges();
+			count = updateSessions(db, values, getSessionSelection(match,
+					selection), getSessionSelectionArgs(uri, match,
+					selectionArgs), changes);
+			notifyChanges(changes);
+			return count;
+		case TOTALS:
+			db.beginTransaction();
+			try {
+				count = sessionTotals.rebuild(db);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			Log.d(TAG, "rebuilt " + count + " totals, "
+					+ sessionTotals.getStatementCache());
+			getContext().sendBroadcast(new Intent(INTENT_SESSION_CHANGE_ACTION));
+			break;
+		case ARCHIVE:
+			long horizon = SessionArchive.getHorizon(getContext(), System
+					.currentTimeMillis());
+			if (horizon == 0) {
+				return 0;
+			}
+			db.beginTransaction();
+			try {
+				count = sessionArchive.archive(db, horizon);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+				sessionArchive.invalidate();
+			}
+			Log.d(TAG, "archived " + count + " sessions");
 			break;
 		default:
 			throw new IllegalArgumentException(getContext().getString(R.string.alert_message_unknown_uri) + " " + uri);
 		}
 
 		// Notify any watchers of the change
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri);
+		return count;
+	}
+
+	/**
+	 * Marks projects as deleted, which hides them and their sessions at once.
+	 * The rows are removed by a background purge.
+	 */
+	private int deleteProjects(SQLiteDatabase db, String selection,
+			String[] selectionArgs) {
+		int count = db.update("project", getDeletedValues(), appendTest(
+				"deleted=0", selection), selectionArgs);
+		schedulePurge();
+		return count;
+	}
+
+	/**
+	 * Marks sessions, archived or not, as deleted and removes them from the
+	 * totals, in one transaction. The rows are removed by a background purge.
+	 */
+	private int deleteSessions(SQLiteDatabase db, String selection,
+			String[] selectionArgs, SessionChanges changes) {
+		int count;
+		db.beginTransaction();
+		try {
+			sessionTotals.remove(db, selection, selectionArgs, changes);
+			commentIndex.remove(db, selection, selectionArgs);
+			String liveSelection = appendTest("deleted=0", selection);
+			ContentValues deletedValues = getDeletedValues();
+			count = db.update("session", deletedValues, liveSelection,
+					selectionArgs)
+					+ db.update("session_archive", deletedValues,
+							liveSelection, selectionArgs);
+			sessionTotals.findLastSessions(db);
+			commentIndex.findLastUses(db);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		schedulePurge();
+		return count;
+	}
+
+	private static ContentValues getDeletedValues() {
+		ContentValues values = new ContentValues();
+		values.put("deleted", 1);
+		return values;
+	}
+
+	/**
+	 * Removes deleted rows in the background, unless a purge is already
+	 * waiting to run.
+	 */
+	private void schedulePurge() {
+		synchronized (purgeExecutor) {
+			if (purgeScheduled) {
+				return;
+			}
+			purgeScheduled = true;
+		}
+		purgeExecutor.execute(new Runnable() {
+			public void run() {
+				synchronized (purgeExecutor) {
+					purgeScheduled = false;
+				}
+				purge();
+			}
+		});
+	}
+
+	/**
+	 * Removes deleted sessions, and deleted projects with their sessions and
+	 * totals. Rows are removed a chunk per transaction, so that other writes
+	 * only wait for one chunk.
+	 */
+	private void purge() {
+		SQLiteDatabase db = myTimeData.getWritableDatabase();
+		List<Long> projectIds = new ArrayList<Long>();
+		Cursor cursor = db.query("project", new String[] { _ID },
+				"deleted<>0", null, null, null, null);
+		try {
+			while (cursor.moveToNext()) {
+				projectIds.add(cursor.getLong(0));
+			}
+		} finally {
+			cursor.close();
+		}
+
+		int count = 0;
+		for (String table : new String[] { "session", "session_archive" }) {
+			count += purgeRows(db, table, "deleted<>0", null);
+			for (long projectId : projectIds) {
+				count += purgeRows(db, table, "project_id=?",
+						new String[] { Long.toString(projectId) });
+			}
+		}
+		sessionArchive.invalidate();
+
+		// the projects have no sessions left
+		for (long projectId : projectIds) {
+			db.beginTransaction();
+			try {
+				sessionTotals.removeProject(db, projectId);
+				commentIndex.removeProject(db, projectId);
+				db.delete("project", "_id=?", new String[] { Long
+						.toString(projectId) });
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+		// the comments of the purged sessions may not be used any more
+		int commentCount;
+		db.beginTransaction();
+		try {
+			commentCount = commentIndex.purge(db);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		Log.d(TAG, "purged " + count + " sessions, " + projectIds.size()
+				+ " projects, " + commentCount + " comments");
+	}
+
+	/**
+	 * Deletes the rows matching the selection, a chunk per transaction.
+	 * 
+	 * @return number of rows deleted
+	 */
+	private int purgeRows(SQLiteDatabase db, String table, String selection,
+			String[] selectionArgs) {
+		String chunkSelection = "_id in (select _id from " + table + " where "
+				+ selection + " limit " + PURGE_CHUNK_SIZE + ")";
+		int count = 0;
+		int chunkCount;
+		do {
+			db.beginTransaction();
+			try {
+				chunkCount = db.delete(table, chunkSelection, selectionArgs);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			count += chunkCount;
+		} while (chunkCount == PURGE_CHUNK_SIZE);
 		return count;
 	}
 
-	/** Append an id test to a SQL selection expression */
-	private String appendRowId(String selection, long id) {
-		return _ID
-				+ "="
-				+ id
+	/**
+	 * Updates sessions, archived or not, and moves them to their new totals,
+	 * in one transaction.
+	 */
+	private int updateSessions(SQLiteDatabase db, ContentValues values,
+			String selection, String[] selectionArgs, SessionChanges changes) {
+		db.beginTransaction();
+		try {
+			long[] sessionIds = sessionTotals.remove(db, selection,
+					selectionArgs, changes);
+			commentIndex.remove(db, selection, selectionArgs);
+			values = commentIndex.toIds(db, values);
+			String liveSelection = appendTest("deleted=0", selection);
+			int count = db.update("session", values, liveSelection,
+					selectionArgs)
+					+ db.update("session_archive", values, liveSelection,
+							selectionArgs);
+			sessionTotals.add(db, sessionIds, changes);
+			sessionTotals.findLastSessions(db);
+			commentIndex.add(db, sessionIds);
+			commentIndex.findLastUses(db);
+			db.setTransactionSuccessful();
+			return count;
+		} finally {
+			db.endTransaction();
+			sessionArchive.invalidate();
+		}
+	}
+
+	/**
+	 * Notifies the watchers of the changed sessions and of their projects
+	 * sessions, and broadcasts the change to the keepers of totals. Within
+	 * applyBatch the change is broadcast without details at the end of the
+	 * batch instead.
+	 */
+	private void notifyChanges(SessionChanges changes) {
+		for (Uri changedUri : changes.getUris()) {
+			notifyChange(changedUri);
+		}
+		if (batchChangedUris.get() == null && !changes.isEmpty()) {
+			getContext().sendBroadcast(changes.getIntent());
+		}
+	}
+
+	/**
+	 * Notifies watchers of uri. Within applyBatch the table uri is remembered
+	 * instead, so that each table is notified once at the end of the batch.
+	 */
+	private void notifyChange(Uri uri) {
+		Set<Uri> changedUris = batchChangedUris.get();
+		if (changedUris != null) {
+			changedUris.add(getTableUri(uri));
+		} else {
+			getContext().getContentResolver().notifyChange(uri, null);
+		}
+	}
+
+	/** Returns the uri of the whole table that uri refers to */
+	private Uri getTableUri(Uri uri) {
+		switch (uriMatcher.match(uri)) {
+		case PROJECTS:
+		case PROJECTS_ID:
+			return CONTENT_URI_PROJECT;
+		case SESSIONS:
+		case SESSIONS_ID:
+			return CONTENT_URI_SESSION;
+		case PROJECT_SESSIONS:
+		case PROJECT_SESSIONS_ID:
+			return getProjectSessionsUri(getSessionsProjectId(uri));
+		default:
+			return uri;
+		}
+	}
+
+	/**
+	 * Returns the uri of the sessions of a project. Watchers of this uri are
+	 * notified of changes to sessions of this project only. It is under the
+	 * session uri, not the project uri, so that watchers of the projects are
+	 * not notified of session changes.
+	 */
+	public static Uri getProjectSessionsUri(long projectId) {
+		return ContentUris.withAppendedId(Uri.withAppendedPath(
+				CONTENT_URI_SESSION, "project"), projectId);
+	}
+
+	/**
+	 * Returns the project id of a project sessions uri.
+	 */
+	private static long getSessionsProjectId(Uri uri) {
+		return Long.parseLong(uri.getPathSegments().get(2));
+	}
+
+	/**
+	 * Returns the uri of the comments of a project. With text, the comments
+	 * that have words starting with the words of text, most used first.
+	 * Without text, the comments most recently used.
+	 * 
+	 * @param text
+	 *            words typed, null for the recent comments
+	 */
+	public static Uri getProjectCommentsUri(long projectId, String text) {
+		Uri.Builder builder = ContentUris.withAppendedId(CONTENT_URI_PROJECT,
+				projectId).buildUpon().appendPath("comment");
+		if (text != null) {
+			builder.appendQueryParameter(PARAM_QUERY, text);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the uri of the totals of a project.
+	 * 
+	 * @param kind
+	 *            Periods.DAY, WEEK or MONTH
+	 * @param from
+	 *            min period start
+	 * @param to
+	 *            period starts are before this
+	 */
+	public static Uri getProjectTotalsUri(long projectId, int kind, long from,
+			long to) {
+		return ContentUris.withAppendedId(CONTENT_URI_PROJECT, projectId)
+				.buildUpon().appendPath("totals").appendQueryParameter(
+						PARAM_GRANULARITY, Periods.NAMES[kind])
+				.appendQueryParameter(PARAM_FROM, Long.toString(from))
+				.appendQueryParameter(PARAM_TO, Long.toString(to)).build();
+	}
+
+	private static long getLongParameter(Uri uri, String name, long defaultValue) {
+		String value = uri.getQueryParameter(name);
+		return value != null ? Long.parseLong(value) : defaultValue;
+	}
+
+	private static boolean isSessionMatch(int match) {
+		return match == SESSIONS || match == SESSIONS_ID
+				|| match == PROJECT_SESSIONS || match == PROJECT_SESSIONS_ID;
+	}
+
+	/**
+	 * Restricts a session selection to the session and project given by the
+	 * uri, if any. The ids are parameters given by getSessionSelectionArgs.
+	 */
+	private String getSessionSelection(int match, String selection) {
+		if (match == SESSIONS_ID || match == PROJECT_SESSIONS_ID) {
+			selection = appendRowId(selection);
+		}
+		if (match == PROJECT_SESSIONS || match == PROJECT_SESSIONS_ID) {
+			selection = appendIdTest("project_id", selection);
+		}
+		return selection;
+	}
+
+	/**
+	 * Returns the selection args for getSessionSelection.
+	 */
+	private String[] getSessionSelectionArgs(Uri uri, int match,
+			String[] selectionArgs) {
+		if (match == SESSIONS_ID || match == PROJECT_SESSIONS_ID) {
+			selectionArgs = appendIdArg(selectionArgs, ContentUris.parseId(uri));
+		}
+		if (match == PROJECT_SESSIONS || match == PROJECT_SESSIONS_ID) {
+			selectionArgs = appendIdArg(selectionArgs,
+					getSessionsProjectId(uri));
+		}
+		return selectionArgs;
+	}
+
+	/**
+	 * Append an id test to a SQL selection expression. The id is a parameter,
+	 * given by appendIdArg, to keep the SQL the same for all ids so it is
+	 * compiled once.
+	 */
+	private String appendRowId(String selection) {
+		return appendIdTest(_ID, selection);
+	}
+
+	/** Append a column = parameter test first in a SQL selection expression */
+	private String appendIdTest(String column, String selection) {
+		return appendTest(column + "=?", selection);
+	}
+
+	/** Append a test first in a SQL selection expression */
+	private String appendTest(String test, String selection) {
+		return test
 				+ (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')'
 						: "");
 	}
 
+	/** Returns the selection args with the id for appendIdTest first */
+	private String[] appendIdArg(String[] selectionArgs, long id) {
+		return appendArg(selectionArgs, Long.toString(id));
+	}
+
+	/** Returns the selection args with the arg for appendTest first */
+	private String[] appendArg(String[] selectionArgs, String arg) {
+		int argCount = selectionArgs != null ? selectionArgs.length : 0;
+		String[] args = new String[argCount + 1];
+		args[0] = arg;
+		if (argCount > 0) {
+			System.arraycopy(selectionArgs, 0, args, 1, argCount);
+		}
+		return args;
+	}
+
 }
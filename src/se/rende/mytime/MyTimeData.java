@@ -16,7 +16,11 @@
 
 package se.rende.mytime;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
@@ -26,11 +30,13 @@ import android.database.sqlite.SQLiteOpenHelper;
  * @author Dag Rende
  */
 public class MyTimeData extends SQLiteOpenHelper {
-	private static final String DATABASE_NAME = "mytime.db";
-	private static final int DATABASE_VERSION = 3;
+	public static final String DATABASE_NAME = "mytime.db";
+	private static final int DATABASE_VERSION = 11;
+	private final Context context;
 
 	public MyTimeData(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		this.context = context;
 	}
 
 	@Override
@@ -40,6 +46,15 @@ public class MyTimeData extends SQLiteOpenHelper {
 				"name text" +
 				");");
 		createSessionTable(db);
+		createSessionIndexes(db);
+		createSessionTotalTable(db);
+		createSessionArchive(db);
+		addDeletedColumns(db);
+		createCommentDictionary(db);
+		createSessionViews(db);
+		createCommentIndex(db);
+		addLastSessionColumns(db);
+		createCommentUseIndexes(db);
 	}
 
 	private void createSessionTable(SQLiteDatabase db) {
@@ -52,9 +67,240 @@ public class MyTimeData extends SQLiteOpenHelper {
 				");");
 	}
 
+	/**
+	 * Creates the indexes used by the session queries. The project_id, start
+	 * index serves both the per project listing in start order and the week
+	 * and month range lookups. The end index finds the running session (end
+	 * is null) without scanning the table.
+	 */
+	private void createSessionIndexes(SQLiteDatabase db) {
+		db.execSQL("create index session_project_start on session (project_id, start);");
+		db.execSQL("create index session_end on session (end);");
+	}
+
+	/**
+	 * Creates the table of work time per project and day, week and month,
+	 * maintained by {@link SessionTotals}.
+	 */
+	private void createSessionTotalTable(SQLiteDatabase db) {
+		db.execSQL("create table session_total (" +
+				"project_id integer not null," +
+				"kind integer not null," +
+				"period_start integer not null," +
+				"work_ms integer not null default 0," +
+				"sessions integer not null default 0," +
+				"primary key (project_id, kind, period_start)" +
+				");");
+	}
+
+	/**
+	 * Adds the last ended session of each period to the totals, so that the
+	 * session list can show a total after the last session of its period
+	 * without looking for it.
+	 */
+	private void addLastSessionColumns(SQLiteDatabase db) {
+		db.execSQL("alter table session_total add column last_session_id integer;");
+		db.execSQL("alter table session_total add column last_session_start integer;");
+	}
+
+	/**
+	 * Creates the table that old sessions are moved to by
+	 * {@link SessionArchive}. Archived sessions keep their ids.
+	 */
+	private void createSessionArchive(SQLiteDatabase db) {
+		db.execSQL("create table session_archive (" +
+				"_id integer primary key," +
+				"project_id integer not null," +
+				"start integer," +
+				"end integer," +
+				"comment text" +
+				");");
+		db.execSQL("create index session_archive_project_start on session_archive (project_id, start);");
+		db.execSQL("create index session_archive_end on session_archive (end);");
+	}
+
+	/**
+	 * Adds the deleted column to projects and sessions. Deleted rows are
+	 * kept, with deleted set to 1, until purged in the background.
+	 */
+	private void addDeletedColumns(SQLiteDatabase db) {
+		db.execSQL("alter table project add column deleted integer not null default 0;");
+		db.execSQL("alter table session add column deleted integer not null default 0;");
+		db.execSQL("alter table session_archive add column deleted integer not null default 0;");
+	}
+
+	/**
+	 * Creates the comment dictionary that sessions refer to by comment_id,
+	 * and the per project comment statistics, maintained by
+	 * {@link CommentIndex}. The comment column of sessions is no longer used.
+	 */
+	private void createCommentDictionary(SQLiteDatabase db) {
+		db.execSQL("create table comment (" +
+				"_id integer primary key autoincrement," +
+				"text text not null unique" +
+				");");
+		db.execSQL("create table comment_stat (" +
+				"project_id integer not null," +
+				"comment_id integer not null," +
+				"uses integer not null default 0," +
+				"last_used integer," +
+				"primary key (project_id, comment_id)" +
+				");");
+		db.execSQL("create index comment_stat_project_last_used on comment_stat (project_id, last_used);");
+		db.execSQL("alter table session add column comment_id integer;");
+		db.execSQL("alter table session_archive add column comment_id integer;");
+	}
+
+	/**
+	 * Creates the views that sessions are read from. They leave out deleted
+	 * sessions and sessions of deleted projects, and have the comment text
+	 * from the comment dictionary. session_hot reads the session table, and
+	 * session_all reads both sessions and archived sessions.
+	 */
+	private void createSessionViews(SQLiteDatabase db) {
+		String columns = "_id, project_id, start, end, " +
+				"(select text from comment where comment._id=comment_id) comment, comment_id";
+		String live = " where deleted=0 and project_id not in " +
+				"(select _id from project where deleted<>0)";
+		db.execSQL("drop view if exists session_hot;");
+		db.execSQL("drop view if exists session_all;");
+		db.execSQL("create view session_hot as " +
+				"select " + columns + " from session" + live + ";");
+		db.execSQL("create view session_all as " +
+				"select " + columns + " from session" + live +
+				" union all " +
+				"select " + columns + " from session_archive" + live + ";");
+	}
+
+	/**
+	 * Creates the indexes that find the last use of a comment in a project,
+	 * and whether a comment is used at all.
+	 */
+	private void createCommentUseIndexes(SQLiteDatabase db) {
+		db.execSQL("create index session_comment on session (comment_id, project_id, start);");
+		db.execSQL("create index session_archive_comment on session_archive (comment_id, project_id, start);");
+	}
+
+	/**
+	 * Creates the full-text index of the comment dictionary, maintained by
+	 * {@link CommentIndex}.
+	 */
+	private void createCommentIndex(SQLiteDatabase db) {
+		db.execSQL("create virtual table comment_fts using fts3 (comment);");
+	}
+
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		if (!db.isReadOnly()) {
+			setWriteAheadLog(db, Settings.isWriteAheadLog(context));
+		}
+	}
+
+	/**
+	 * Switches between write-ahead log and the default rollback journal, by
+	 * SQLiteDatabase.enableWriteAheadLogging of API level 11, called by
+	 * reflection as the app is built for API level 9. With the write-ahead
+	 * log, the framework runs queries on a pool of connections of their
+	 * own, so readers do not wait for a writer and a writer does not wait
+	 * for readers.
+	 * 
+	 * Must not be called in a transaction.
+	 * 
+	 * @return true if the write-ahead log is used
+	 */
+	public static boolean setWriteAheadLog(SQLiteDatabase db,
+			boolean writeAheadLog) {
+		if (writeAheadLog) {
+			Method enable = getMethod("enableWriteAheadLogging");
+			return enable != null && Boolean.TRUE.equals(invoke(enable, db));
+		}
+		Method disable = getMethod("disableWriteAheadLogging");
+		if (disable != null) {
+			invoke(disable, db);
+		} else if ("wal".equalsIgnoreCase(pragma(db, "journal_mode"))) {
+			// before API level 16, a write-ahead log enabled on an earlier
+			// open is kept in the database file
+			pragma(db, "journal_mode=DELETE");
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the SQLite of the device has a write-ahead log, which
+	 * it has from version 3.7.0, and the framework can use it, from API
+	 * level 11.
+	 */
+	public static boolean isWriteAheadLogSupported() {
+		if (getMethod("enableWriteAheadLogging") == null) {
+			return false;
+		}
+		// the version of the library, so any database will do
+		SQLiteDatabase db = SQLiteDatabase.create(null);
+		try {
+			Cursor cursor = db.rawQuery("select sqlite_version()", null);
+			try {
+				if (!cursor.moveToNext()) {
+					return false;
+				}
+				String[] version = cursor.getString(0).split("\\.");
+				int major = Integer.parseInt(version[0]);
+				int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+				return major > 3 || major == 3 && minor >= 7;
+			} finally {
+				cursor.close();
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * Returns a method of SQLiteDatabase without parameters, or null if
+	 * the API level has none of that name.
+	 */
+	private static Method getMethod(String name) {
+		try {
+			return SQLiteDatabase.class.getMethod(name);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static Object invoke(Method method, SQLiteDatabase db) {
+		try {
+			return method.invoke(db);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e.toString());
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause.toString());
+		}
+	}
+
+	/**
+	 * Runs a PRAGMA statement.
+	 * 
+	 * @return first column of the first result row, or null if no result
+	 */
+	private static String pragma(SQLiteDatabase db, String pragma) {
+		Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+		try {
+			return cursor.moveToNext() ? cursor.getString(0) : null;
+		} finally {
+			cursor.close();
+		}
+	}
+
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		if (oldVersion != newVersion) {
+			boolean rebuildTotals = false;
 			for (int i = oldVersion; i < newVersion; i++) {
 				switch (i) {
 				case 1:
@@ -63,10 +309,47 @@ public class MyTimeData extends SQLiteOpenHelper {
 				case 2:
 					createSessionTable(db);
 					break;
+				case 3:
+					createSessionIndexes(db);
+					break;
+				case 4:
+					createSessionTotalTable(db);
+					rebuildTotals = true;
+					break;
+				case 5:
+					createSessionArchive(db);
+					break;
+				case 6:
+					addDeletedColumns(db);
+					break;
+				case 7:
+					createCommentIndex(db);
+					break;
+				case 8:
+					CommentIndex commentIndex = new CommentIndex();
+					createCommentDictionary(db);
+					commentIndex.migrate(db);
+					createSessionViews(db);
+					commentIndex.rebuild(db);
+					commentIndex.close();
+					break;
+				case 9:
+					addLastSessionColumns(db);
+					rebuildTotals = true;
+					break;
+				case 10:
+					createCommentUseIndexes(db);
+					break;
 				default:
 					break;
 				}
 			}
+			if (rebuildTotals) {
+				// when all tables the totals are read from exist
+				SessionTotals sessionTotals = new SessionTotals(context);
+				sessionTotals.rebuild(db);
+				sessionTotals.close();
+			}
 		}
 	}
 
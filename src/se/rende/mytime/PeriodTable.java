@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * The local midnights of a time zone, calculated once per year by Calendar,
+ * so that times can be put in days, weeks and months without allocating
+ * anything. Daylight saving transitions are in the midnights, so a day may
+ * be 23 or 25 hours long. Where the clock is set back to midnight, the
+ * day starts at the first of the two midnights.
+ *
+ * A day is given by a packed int key, year << 9 | day of year (0 based), a
+ * week by the key of its first day, a month by year << 4 | month (0
+ * based), and a year by the year. Keys sort in time order.
+ *
+ * Covers the years MIN_YEAR to MAX_YEAR. Is thread safe.
+ *
+ * @author Dag Rende
+ */
+public final class PeriodTable {
+	public static final int MIN_YEAR = 1900;
+	public static final int MAX_YEAR = 2199;
+	private static final long DAY_MILLIS = 24 * 3600 * 1000;
+	private static final long YEAR_MILLIS = 365 * DAY_MILLIS;
+	private final TimeZone zone;
+	private final int firstDayOfWeek;
+	private final int minimalDaysInFirstWeek;
+	/** start of each year, and the end of the last */
+	private final long[] yearStarts;
+	/** the days of each year, made when first used */
+	private final Year[] years;
+
+	/**
+	 * The days of one year.
+	 */
+	private static final class Year {
+		/** start of each day, and the start of next year */
+		final long[] midnights;
+		/** day of year of the first of each month */
+		final int[] monthStarts;
+		/** day of week of January 1, as Calendar.DAY_OF_WEEK */
+		final int firstDayOfWeek;
+		/** length of the shortest day, 0 if a day is skipped */
+		final long shortestDayMillis;
+
+		Year(long[] midnights, int[] monthStarts, int firstDayOfWeek) {
+			this.midnights = midnights;
+			this.monthStarts = monthStarts;
+			this.firstDayOfWeek = firstDayOfWeek;
+			long shortest = Long.MAX_VALUE;
+			for (int day = 0; day < midnights.length - 1; day++) {
+				shortest = Math.min(shortest, midnights[day + 1] - midnights[day]);
+			}
+			shortestDayMillis = shortest;
+		}
+
+		int getDayCount() {
+			return midnights.length - 1;
+		}
+	}
+
+	/**
+	 * @param zone
+	 *            time zone of the midnights
+	 * @param firstDayOfWeek
+	 *            day that weeks start on, as Calendar.DAY_OF_WEEK
+	 * @param minimalDaysInFirstWeek
+	 *            days of a week that must be in a year for it to be week 1
+	 *            of the year, as Calendar.getMinimalDaysInFirstWeek
+	 */
+	public PeriodTable(TimeZone zone, int firstDayOfWeek,
+			int minimalDaysInFirstWeek) {
+		this.zone = zone;
+		this.firstDayOfWeek = firstDayOfWeek;
+		this.minimalDaysInFirstWeek = minimalDaysInFirstWeek;
+		int yearCount = MAX_YEAR - MIN_YEAR + 1;
+		years = new Year[yearCount];
+		yearStarts = new long[yearCount + 1];
+		Calendar cal = Calendar.getInstance(zone);
+		for (int i = 0; i <= yearCount; i++) {
+			cal.clear();
+			cal.set(MIN_YEAR + i, Calendar.JANUARY, 1);
+			yearStarts[i] = getFirstMidnight(cal.getTimeInMillis());
+		}
+	}
+
+	public TimeZone getZone() {
+		return zone;
+	}
+
+	public int getFirstDayOfWeek() {
+		return firstDayOfWeek;
+	}
+
+	public int getMinimalDaysInFirstWeek() {
+		return minimalDaysInFirstWeek;
+	}
+
+	/**
+	 * Returns true if time is in the years of the table.
+	 */
+	public boolean covers(long time) {
+		return yearStarts[0] <= time && time < yearStarts[yearStarts.length - 1];
+	}
+
+	/**
+	 * Returns the key of the day that contains time.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if time is not covered
+	 */
+	public int getDayKey(long time) {
+		if (!covers(time)) {
+			throw new IllegalArgumentException("time=" + time);
+		}
+		int yearIndex = (int) ((time - yearStarts[0]) / YEAR_MILLIS);
+		if (yearIndex >= years.length) {
+			yearIndex = years.length - 1;
+		}
+		while (yearStarts[yearIndex] > time) {
+			yearIndex--;
+		}
+		while (yearStarts[yearIndex + 1] <= time) {
+			yearIndex++;
+		}
+		long[] midnights = getYearDays(yearIndex).midnights;
+		int day = (int) ((time - midnights[0]) / DAY_MILLIS);
+		if (day >= midnights.length - 1) {
+			day = midnights.length - 2;
+		}
+		while (midnights[day] > time) {
+			day--;
+		}
+		while (midnights[day + 1] <= time) {
+			day++;
+		}
+		return (MIN_YEAR + yearIndex) << 9 | day;
+	}
+
+	/**
+	 * Returns the key of the week that contains time, the key of its first
+	 * day.
+	 */
+	public int getWeekKey(long time) {
+		int dayKey = getDayKey(time);
+		int daysIntoWeek = (getDayOfWeek(dayKey) - firstDayOfWeek + 7) % 7;
+		return addDays(dayKey, -daysIntoWeek);
+	}
+
+	/**
+	 * Returns the week of year of a week key, as Calendar.WEEK_OF_YEAR. A
+	 * week over new year is in the year that has at least the minimal days
+	 * of it, so all its days have the same week number.
+	 */
+	public int getWeekNumber(int weekKey) {
+		// the first day that is in the year of the week
+		int dayKey = addDays(weekKey, 7 - minimalDaysInFirstWeek);
+		return (dayKey & 0x1ff) / 7 + 1;
+	}
+
+	/**
+	 * Returns the key of the month that contains time.
+	 */
+	public int getMonthKey(long time) {
+		int dayKey = getDayKey(time);
+		return getYear(dayKey) << 4 | getMonth(dayKey);
+	}
+
+	/**
+	 * Returns the key of the period of the specified kind that contains time.
+	 *
+	 * @param kind
+	 *            Periods.DAY, WEEK, MONTH or YEAR
+	 */
+	public int getKey(int kind, long time) {
+		switch (kind) {
+		case Periods.DAY:
+			return getDayKey(time);
+		case Periods.WEEK:
+			return getWeekKey(time);
+		case Periods.MONTH:
+			return getMonthKey(time);
+		case Periods.YEAR:
+			return getYear(getDayKey(time));
+		default:
+			throw new IllegalArgumentException("kind=" + kind);
+		}
+	}
+
+	/**
+	 * Returns the start of the period of the specified kind with the key.
+	 *
+	 * @param kind
+	 *            Periods.DAY, WEEK, MONTH or YEAR
+	 * @return millisecond time of the local midnight the period starts at
+	 */
+	public long getKeyStart(int kind, int key) {
+		switch (kind) {
+		case Periods.DAY:
+		case Periods.WEEK:
+			return getMidnight(key >> 9, key & 0x1ff);
+		case Periods.MONTH:
+			int year = key >> 4;
+			return getMidnight(year, getYearDays(year - MIN_YEAR).monthStarts[key & 0xf]);
+		case Periods.YEAR:
+			return getMidnight(key, 0);
+		default:
+			throw new IllegalArgumentException("kind=" + kind);
+		}
+	}
+
+	/**
+	 * Returns the key of the period of the specified kind count periods after
+	 * the one with the key.
+	 *
+	 * @param kind
+	 *            Periods.DAY, WEEK, MONTH or YEAR
+	 * @param count
+	 *            number of periods to move, negative to move back
+	 */
+	public int addPeriods(int kind, int key, int count) {
+		switch (kind) {
+		case Periods.DAY:
+			return addDays(key, count);
+		case Periods.WEEK:
+			return addDays(key, 7 * count);
+		case Periods.MONTH:
+			int months = (key >> 4) * 12 + (key & 0xf) + count;
+			return months / 12 << 4 | months % 12;
+		case Periods.YEAR:
+			return key + count;
+		default:
+			throw new IllegalArgumentException("kind=" + kind);
+		}
+	}
+
+	/**
+	 * Returns the key of the day count days after the day with the key.
+	 */
+	public int addDays(int dayKey, int count) {
+		int year = getYear(dayKey);
+		int day = (dayKey & 0x1ff) + count;
+		while (day < 0) {
+			year--;
+			day += getYearDays(year - MIN_YEAR).getDayCount();
+		}
+		while (day >= getYearDays(year - MIN_YEAR).getDayCount()) {
+			day -= getYearDays(year - MIN_YEAR).getDayCount();
+			year++;
+		}
+		return year << 9 | day;
+	}
+
+	/**
+	 * Returns the length of the shortest day of the years from the one of
+	 * the first day key to the one of the last. That is 23 hours where
+	 * daylight saving moves the clock by an hour, less where it moves it
+	 * more, and 0 where a day is skipped.
+	 */
+	public long getShortestDayMillis(int firstDayKey, int lastDayKey) {
+		long shortest = Long.MAX_VALUE;
+		int lastYear = getYear(lastDayKey);
+		for (int year = getYear(firstDayKey); year <= lastYear; year++) {
+			shortest = Math.min(shortest,
+					getYearDays(year - MIN_YEAR).shortestDayMillis);
+		}
+		return shortest;
+	}
+
+	/**
+	 * Returns the year of a day key.
+	 */
+	public static int getYear(int dayKey) {
+		return dayKey >> 9;
+	}
+
+	/**
+	 * Returns the number of a day key in a count of days, so that the
+	 * difference of two day numbers is the number of days between them.
+	 */
+	public static int getDayNumber(int dayKey) {
+		int yearsBefore = getYear(dayKey) - 1;
+		return 365 * yearsBefore + yearsBefore / 4 - yearsBefore / 100
+				+ yearsBefore / 400 + (dayKey & 0x1ff);
+	}
+
+	/**
+	 * Returns the month of a day key, as Calendar.MONTH.
+	 */
+	public int getMonth(int dayKey) {
+		int[] monthStarts = getYearDays(getYear(dayKey) - MIN_YEAR).monthStarts;
+		int day = dayKey & 0x1ff;
+		int month = 11;
+		while (monthStarts[month] > day) {
+			month--;
+		}
+		return month;
+	}
+
+	/**
+	 * Returns the day of month of a day key, as Calendar.DAY_OF_MONTH.
+	 */
+	public int getDayOfMonth(int dayKey) {
+		int[] monthStarts = getYearDays(getYear(dayKey) - MIN_YEAR).monthStarts;
+		return (dayKey & 0x1ff) - monthStarts[getMonth(dayKey)] + 1;
+	}
+
+	/**
+	 * Returns the day of week of a day key, as Calendar.DAY_OF_WEEK.
+	 */
+	public int getDayOfWeek(int dayKey) {
+		Year year = getYearDays(getYear(dayKey) - MIN_YEAR);
+		return (year.firstDayOfWeek - 1 + (dayKey & 0x1ff)) % 7 + 1;
+	}
+
+	private long getMidnight(int year, int day) {
+		return getYearDays(year - MIN_YEAR).midnights[day];
+	}
+
+	/**
+	 * Returns the days of a year, making them if not made yet.
+	 */
+	private Year getYearDays(int yearIndex) {
+		if (yearIndex < 0 || yearIndex >= years.length) {
+			throw new IllegalArgumentException("year=" + (MIN_YEAR + yearIndex));
+		}
+		Year year = years[yearIndex];
+		if (year == null) {
+			year = makeYear(yearIndex);
+		}
+		return year;
+	}
+
+	/**
+	 * Returns the first instant of the midnight that Calendar gives, which
+	 * is the later one where the clock is set back to midnight. Then the
+	 * date has already changed at the first midnight.
+	 */
+	private long getFirstMidnight(long midnight) {
+		int offset = zone.getOffset(midnight);
+		// the clock is set back at most a few hours
+		int setBack = zone.getOffset(midnight - 6 * 3600 * 1000) - offset;
+		if (setBack > 0 && zone.getOffset(midnight - 1) == offset + setBack) {
+			return midnight - setBack;
+		}
+		return midnight;
+	}
+
+	private synchronized Year makeYear(int yearIndex) {
+		Year year = years[yearIndex];
+		if (year == null) {
+			Calendar cal = Calendar.getInstance(zone);
+			cal.clear();
+			cal.set(MIN_YEAR + yearIndex, Calendar.JANUARY, 1);
+			int dayCount = cal.getActualMaximum(Calendar.DAY_OF_YEAR);
+			int firstDayOfWeek = cal.get(Calendar.DAY_OF_WEEK);
+			long[] midnights = new long[dayCount + 1];
+			int[] monthStarts = new int[12];
+			for (int day = 0; day < dayCount; day++) {
+				// set each day from the date, as a day may not start at 00:00
+				cal.clear();
+				cal.set(MIN_YEAR + yearIndex, Calendar.JANUARY, day + 1);
+				midnights[day] = getFirstMidnight(cal.getTimeInMillis());
+				if (cal.get(Calendar.DAY_OF_MONTH) == 1) {
+					monthStarts[cal.get(Calendar.MONTH)] = day;
+				}
+			}
+			midnights[dayCount] = yearStarts[yearIndex + 1];
+			year = new Year(midnights, monthStarts, firstDayOfWeek);
+			years[yearIndex] = year;
+		}
+		return year;
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Calculates the day, week and month periods that sessions are summed in.
+ * A period is given by its start time, and runs up to (not including) the
+ * start of the next period. Uses a PeriodTable of the default time zone, so
+ * that no objects are made per call, and Calendar outside of its years. The
+ * table is shared by the totals, the session list and the reports, and made
+ * again after reset, when the time zone or locale has changed.
+ *
+ * @author Dag Rende
+ */
+public class Periods {
+	public static final int DAY = 0;
+	public static final int WEEK = 1;
+	public static final int MONTH = 2;
+	public static final int YEAR = 3;
+	/** the kinds kept in the session totals */
+	public static final int[] KINDS = { DAY, WEEK, MONTH };
+	/** names of the kinds, as used in uris */
+	public static final String[] NAMES = { "day", "week", "month", "year" };
+	private static volatile PeriodTable table;
+
+	/**
+	 * Returns the kind with the specified name.
+	 *
+	 * @param name
+	 *            name of one of KINDS
+	 * @return DAY, WEEK or MONTH
+	 */
+	public static int getKind(String name) {
+		for (int kind : KINDS) {
+			if (NAMES[kind].equals(name)) {
+				return kind;
+			}
+		}
+		throw new IllegalArgumentException("period=" + name);
+	}
+
+	/**
+	 * Returns the table of the default time zone and the weeks of the
+	 * default locale.
+	 */
+	public static PeriodTable getTable() {
+		PeriodTable t = table;
+		if (t == null) {
+			Calendar cal = Calendar.getInstance();
+			t = new PeriodTable(TimeZone.getDefault(), cal.getFirstDayOfWeek(),
+					cal.getMinimalDaysInFirstWeek());
+			table = t;
+		}
+		return t;
+	}
+
+	/**
+	 * Throws away the table, so that the next call makes one of the current
+	 * default time zone and locale.
+	 */
+	public static void reset() {
+		table = null;
+	}
+
+	/**
+	 * Returns the week number of the week that contains time, as
+	 * Calendar.WEEK_OF_YEAR.
+	 */
+	public static int getWeekNumber(long time) {
+		PeriodTable t = getTable();
+		if (t.covers(time)) {
+			try {
+				return t.getWeekNumber(t.getWeekKey(time));
+			} catch (IllegalArgumentException e) {
+				// the week is at the end of the table
+			}
+		}
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(time);
+		return cal.get(Calendar.WEEK_OF_YEAR);
+	}
+
+	/**
+	 * Returns the month of the day that contains time, as Calendar.MONTH.
+	 */
+	public static int getMonth(long time) {
+		PeriodTable t = getTable();
+		if (t.covers(time)) {
+			return t.getMonth(t.getDayKey(time));
+		}
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(time);
+		return cal.get(Calendar.MONTH);
+	}
+
+	/**
+	 * Returns the year of the day that contains time, as Calendar.YEAR.
+	 */
+	public static int getYear(long time) {
+		PeriodTable t = getTable();
+		if (t.covers(time)) {
+			return PeriodTable.getYear(t.getDayKey(time));
+		}
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(time);
+		return cal.get(Calendar.YEAR);
+	}
+
+	/**
+	 * Returns the start of the period of the specified kind that contains
+	 * time.
+	 *
+	 * @param kind
+	 *            DAY, WEEK, MONTH or YEAR
+	 * @param time
+	 *            millisecond time
+	 * @return millisecond time of the local midnight the period starts at
+	 */
+	public static long getStart(int kind, long time) {
+		PeriodTable t = getTable();
+		if (t.covers(time)) {
+			try {
+				return t.getKeyStart(kind, t.getKey(kind, time));
+			} catch (IllegalArgumentException e) {
+				// the period starts out of the table
+			}
+		}
+		return move(Calendar.getInstance(), kind, time, 0);
+	}
+
+	/**
+	 * Returns the end of a period.
+	 *
+	 * @param kind
+	 *            DAY, WEEK, MONTH or YEAR
+	 * @param periodStart
+	 *            start of the period, as returned by getStart
+	 * @return millisecond time of the start of the next period
+	 */
+	public static long getEnd(int kind, long periodStart) {
+		return move(kind, periodStart, 1);
+	}
+
+	/**
+	 * Returns the start of the period count periods after the one that
+	 * contains time.
+	 *
+	 * @param kind
+	 *            DAY, WEEK, MONTH or YEAR
+	 * @param count
+	 *            number of periods to move, negative to move back
+	 * @return millisecond time of the local midnight the period starts at
+	 */
+	public static long move(int kind, long time, int count) {
+		PeriodTable t = getTable();
+		if (t.covers(time)) {
+			try {
+				return t.getKeyStart(kind, t.addPeriods(kind, t.getKey(kind,
+						time), count));
+			} catch (IllegalArgumentException e) {
+				// moved out of the table
+			}
+		}
+		return move(Calendar.getInstance(), kind, time, count);
+	}
+
+	private static long move(Calendar cal, int kind, long time, int count) {
+		cal.setTimeInMillis(time);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		switch (kind) {
+		case DAY:
+			cal.add(Calendar.DATE, count);
+			break;
+		case WEEK:
+			int daysIntoWeek = (cal.get(Calendar.DAY_OF_WEEK)
+					- cal.getFirstDayOfWeek() + 7) % 7;
+			cal.add(Calendar.DATE, 7 * count - daysIntoWeek);
+			break;
+		case MONTH:
+			cal.set(Calendar.DAY_OF_MONTH, 1);
+			cal.add(Calendar.MONTH, count);
+			break;
+		case YEAR:
+			cal.set(Calendar.DAY_OF_YEAR, 1);
+			cal.add(Calendar.YEAR, count);
+			break;
+		default:
+			throw new IllegalArgumentException("kind=" + kind);
+		}
+		return cal.getTimeInMillis();
+	}
+}
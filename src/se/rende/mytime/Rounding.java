@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+/**
+ * How work time is rounded to the precision, in whole milliseconds. Either
+ * each session is rounded and the totals are sums of rounded sessions, or
+ * each day total is rounded and the longer totals are sums of rounded
+ * days, or each total is rounded from the exact sum.
+ *
+ * Totals are kept as their rounded parts are summed, so that they can be
+ * changed one session at a time, and rounded at their own level only when
+ * shown, by roundTotal. With rounding per day, a day total is kept exact
+ * and the week and month totals as sums of rounded days.
+ *
+ * Uses no Android classes. Is immutable.
+ *
+ * @author Dag Rende
+ */
+public final class Rounding {
+	/** round each session */
+	public static final int SESSION = 0;
+	/** round the sum of each day */
+	public static final int DAY = 1;
+	/** round each total, of a day, week, month or more */
+	public static final int PERIOD = 2;
+	/** names of the levels, as in the settings */
+	public static final String[] LEVEL_NAMES = { "session", "day", "period" };
+	private final long unitMillis;
+	private final int level;
+	private final boolean up;
+
+	/**
+	 * @param unitMillis
+	 *            work time is rounded to a multiple of this, not rounded if
+	 *            0
+	 * @param level
+	 *            SESSION, DAY or PERIOD
+	 * @param up
+	 *            true to round up, false to round to the nearest multiple
+	 */
+	public Rounding(long unitMillis, int level, boolean up) {
+		if (level < SESSION || level > PERIOD) {
+			throw new IllegalArgumentException("level=" + level);
+		}
+		this.unitMillis = Math.max(0, unitMillis);
+		this.level = level;
+		this.up = up;
+	}
+
+	/**
+	 * Returns the level with the specified name, SESSION if unknown.
+	 */
+	public static int getLevel(String name) {
+		for (int level = SESSION; level <= PERIOD; level++) {
+			if (LEVEL_NAMES[level].equals(name)) {
+				return level;
+			}
+		}
+		return SESSION;
+	}
+
+	public long getUnitMillis() {
+		return unitMillis;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public boolean isUp() {
+		return up;
+	}
+
+	/**
+	 * Returns true if day totals are rounded, and the longer totals are sums
+	 * of rounded days.
+	 */
+	public boolean isPerDay() {
+		return level == DAY;
+	}
+
+	/**
+	 * Returns millis rounded to a multiple of the unit.
+	 */
+	public long round(long millis) {
+		if (unitMillis == 0) {
+			return millis;
+		}
+		long n = up ? millis + unitMillis - 1 : millis + unitMillis / 2;
+		// rounds down for negative n too
+		long quotient = n / unitMillis;
+		if (n % unitMillis < 0) {
+			quotient--;
+		}
+		return quotient * unitMillis;
+	}
+
+	/**
+	 * Returns the work time of a session, rounded if each session is.
+	 */
+	public long roundSession(long millis) {
+		return level == SESSION ? round(millis) : millis;
+	}
+
+	/**
+	 * Returns a total as kept to be shown, rounded if totals of its kind are.
+	 *
+	 * @param kind
+	 *            Periods.DAY, WEEK, MONTH or YEAR, where YEAR is for totals
+	 *            of any longer time
+	 */
+	public long roundTotal(int kind, long millis) {
+		if (level == PERIOD || level == DAY && kind == Periods.DAY) {
+			return round(millis);
+		}
+		return millis;
+	}
+
+	@Override
+	public String toString() {
+		return "Rounding(unitMillis=" + unitMillis + ", level="
+				+ LEVEL_NAMES[level] + ", up=" + up + ")";
+	}
+}
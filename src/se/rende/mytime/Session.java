@@ -19,27 +19,32 @@ package se.rende.mytime;
 import static se.rende.mytime.Constants.CONTENT_URI_PROJECT;
 import static se.rende.mytime.Constants.CONTENT_URI_SESSION;
 
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.DatePickerDialog;
 import android.app.TimePickerDialog;
 import android.content.ContentValues;
+import android.content.DialogInterface;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.text.format.DateFormat;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
-import android.widget.ArrayAdapter;
 import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.DatePicker;
+import android.widget.FilterQueryProvider;
+import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.TimePicker;
 
@@ -65,9 +70,13 @@ public class Session extends Activity implements OnClickListener, OnItemClickLis
 	private String projectName;
 	private TextView projectNameView;
 	private GoogleAnalyticsTracker tracker;
-	private List<String> suggestionList = new ArrayList<String>();
 	private Button cancelButton;
 	private Button okButton;
+	/** all sessions, read in the background, null until read */
+	private SessionIntervalIndex intervalIndex;
+	private final Handler handler = new Handler();
+	private final ExecutorService reader = Executors.newSingleThreadExecutor();
+	private boolean destroyed;
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -127,49 +136,58 @@ public class Session extends Activity implements OnClickListener, OnItemClickLis
 		projectName = getProjectName(currentProjectId);
 		setupCommentFieldAutoCompletion();
 		showSession();
+		readIntervalIndex();
 	}
 
 	@Override
 	protected void onDestroy() {		
+		destroyed = true;
+		reader.shutdownNow();
 		super.onDestroy();
 		tracker.stop();
 	}
 
 	/**
-	 * Add drop-down to comment field with suggestions from sessions around this one.
+	 * Reads the intervals of all sessions in the background, for the overlap
+	 * check, and keeps them when read.
 	 */
-	private void setupCommentFieldAutoCompletion() {
-		setSuggestionCursor();
-		ArrayAdapter<String> adapter = new ArrayAdapter<String>(this,
-				R.layout.autocomplete_listitem, suggestionList);
-		commentView.setThreshold(0);
-		commentView.setAdapter(adapter);
+	private void readIntervalIndex() {
+		reader.execute(new Runnable() {
+			public void run() {
+				final SessionIntervalIndex index = Sessions
+						.getIntervalIndex(Session.this);
+				handler.post(new Runnable() {
+					public void run() {
+						if (!destroyed) {
+							intervalIndex = index;
+						}
+					}
+				});
+			}
+		});
 	}
 
 	/**
-	 * Sets suggestionCursor to the list of comments closest to current session in time.
+	 * Add drop-down to comment field with suggestions from the comments of this project.
+	 * The suggestions are searched in the comment index as the user types.
 	 */
-	private void setSuggestionCursor() {
-		MyTimeData myTimeData = new MyTimeData(this);
-		Cursor cursor = null;
-		try {
-			cursor = myTimeData.getReadableDatabase().rawQuery(
-					"select 0 _id, comment, min(abs(start - ?)) timedist " +
-					"from session " +
-					"where project_id=? and comment is not null and comment <> '' " +
-					"group by comment " +
-					"order by timedist", 
-					new String[] {"" + startDateTime, "" + currentProjectId});
-			suggestionList.clear();
-			while (cursor.moveToNext()) {
-				suggestionList.add(cursor.getString(1));
-			}
-		} finally {
-			if (cursor != null) {
-				cursor.close();
+	private void setupCommentFieldAutoCompletion() {
+		SimpleCursorAdapter adapter = new SimpleCursorAdapter(this,
+				R.layout.autocomplete_listitem, null,
+				new String[] { "comment" }, new int[] { R.id.text1 });
+		adapter.setStringConversionColumn(1);
+		adapter.setFilterQueryProvider(new FilterQueryProvider() {
+			public Cursor runQuery(CharSequence constraint) {
+				return getContentResolver().query(
+						MyTimeContentProvider.getProjectCommentsUri(
+								currentProjectId,
+								constraint != null ? constraint.toString()
+										: null),
+						CommentIndex.COMMENT_COLUMNS, null, null, null);
 			}
-			myTimeData.close();
-		}
+		});
+		commentView.setThreshold(0);
+		commentView.setAdapter(adapter);
 	}
 
 	/**
@@ -186,12 +204,6 @@ public class Session extends Activity implements OnClickListener, OnItemClickLis
 		
 	}
 	
-	@Override
-	protected void onRestart() {
-		super.onRestart();
-		setSuggestionCursor();
-	}
-	
 	@Override
 	protected void onPause() {
 		super.onPause();
@@ -199,7 +211,8 @@ public class Session extends Activity implements OnClickListener, OnItemClickLis
 	
 	private String getProjectName(long projectId) {
 		Cursor projectCursor = getContentResolver().query(CONTENT_URI_PROJECT,
-				new String[] { "name" }, "_id=" + projectId, null, null);
+				new String[] { "name" }, "_id=?",
+				new String[] { Long.toString(projectId) }, null);
 		try {
 			if (projectCursor.moveToNext()) {
 				return projectCursor.getString(0);
@@ -235,6 +248,40 @@ public class Session extends Activity implements OnClickListener, OnItemClickLis
 				new String[] { "" + currentSessionId });
 	}
 	
+	private void saveAndFinish() {
+		if (currentSessionId != null) {
+			saveSession();
+		} else {
+			createSession();
+		}
+		finish();
+	}
+
+	/**
+	 * Lets the user save a session that overlaps other sessions, or go on
+	 * editing it. Not shown if the sessions have not been read yet.
+	 */
+	private void showOverlapWarning(SessionIntervalIndex index, int[] overlaps) {
+		Map<Long, String> projectNames = SessionOverlaps.getProjectNames(this);
+		StringBuilder message = new StringBuilder(
+				getString(R.string.overlap_message));
+		for (int i : overlaps) {
+			message.append("\n").append(
+					SessionOverlaps.describe(this, index, i, projectNames));
+		}
+		new AlertDialog.Builder(this)
+				.setTitle(R.string.overlap_title)
+				.setMessage(message)
+				.setPositiveButton(R.string.overlap_save_anyway,
+						new DialogInterface.OnClickListener() {
+							public void onClick(DialogInterface dialog,
+									int which) {
+								saveAndFinish();
+							}
+						})
+				.setNegativeButton(R.string.cancel_button_label, null).show();
+	}
+
 	private void createSession() {
 		ContentValues values = new ContentValues();
 		values.put("project_id", currentProjectId);
@@ -268,12 +315,16 @@ public class Session extends Activity implements OnClickListener, OnItemClickLis
 			TimePickerDialog timePickerDialog = new TimePickerDialog(this, new SessionTimeSetListener(false), cal.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE), DateFormat.is24HourFormat(this));
 			timePickerDialog.show();
 		} else if (v == okButton) {
-			if (currentSessionId != null) {
-				saveSession();
+			SessionIntervalIndex index = intervalIndex;
+			int[] overlaps = index != null ? index.findOverlaps(startDateTime,
+					isRunning ? Long.MAX_VALUE : endDateTime,
+					currentSessionId != null ? currentSessionId : -1)
+					: new int[0];
+			if (overlaps.length > 0) {
+				showOverlapWarning(index, overlaps);
 			} else {
-				createSession();
+				saveAndFinish();
 			}
-			finish();
 		} else if (v == cancelButton) {
 			finish();
 		}
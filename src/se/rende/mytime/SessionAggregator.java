@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+/**
+ * Sums the work time of ended sessions per period, in one pass over
+ * sessions added in start order. When a session starts in a new period,
+ * the total of the previous period of each kind is given to the listener,
+ * shortest kind first, so a day total comes before the week total it ends.
+ * A session is counted in the periods its start is in. If the work rules
+ * round each day, the longer totals are sums of rounded days, and the day
+ * totals are given exact, as kept in the session totals.
+ *
+ * Uses no Android classes.
+ *
+ * @author Dag Rende
+ */
+public class SessionAggregator {
+	private final WorkRules workRules;
+	private final int[] kinds;
+	private final Listener listener;
+	private final long[] periodStarts;
+	private final long[] periodEnds;
+	private final long[] workMillis;
+	private final int[] sessionCounts;
+	private final long[] lastSessionIds;
+	private final long[] lastSessionStarts;
+	private final Rounding rounding;
+	/** end of the day of dayMillis, if rounded per day */
+	private long dayEnd;
+	/** summed work time of the day, if rounded per day */
+	private long dayMillis;
+	private boolean inDay;
+
+	/**
+	 * Is given the total of each period with sessions, when it is done.
+	 */
+	public interface Listener {
+		/**
+		 * @param kind
+		 *            Periods.DAY, WEEK, MONTH or YEAR
+		 * @param periodStart
+		 *            start of the period
+		 * @param workMillis
+		 *            summed work time of the sessions of the period
+		 * @param sessionCount
+		 *            number of sessions in the period
+		 * @param lastSessionId
+		 *            id of the last session of the period
+		 * @param lastSessionStart
+		 *            start of the last session of the period
+		 */
+		void periodEnded(int kind, long periodStart, long workMillis,
+				int sessionCount, long lastSessionId, long lastSessionStart);
+	}
+
+	/**
+	 * @param workRules
+	 *            what the work time of a session is calculated by
+	 * @param kinds
+	 *            the kinds of periods to sum, shortest first
+	 * @param listener
+	 *            is given the period totals
+	 */
+	public SessionAggregator(WorkRules workRules, int[] kinds,
+			Listener listener) {
+		this.workRules = workRules;
+		this.kinds = kinds.clone();
+		this.listener = listener;
+		periodStarts = new long[kinds.length];
+		periodEnds = new long[kinds.length];
+		workMillis = new long[kinds.length];
+		sessionCounts = new int[kinds.length];
+		lastSessionIds = new long[kinds.length];
+		lastSessionStarts = new long[kinds.length];
+		rounding = workRules.getRounding();
+	}
+
+	/**
+	 * Adds an ended session, starting at or after the sessions added
+	 * before.
+	 *
+	 * @return the work time of the session
+	 */
+	public long add(long id, long start, long end) {
+		if (inDay && start >= dayEnd) {
+			endDay();
+		}
+		for (int i = 0; i < kinds.length; i++) {
+			if (sessionCounts[i] > 0 && start >= periodEnds[i]) {
+				end(i);
+			}
+		}
+		long sessionMillis = workRules.getWorkMillis(start, end);
+		boolean perDay = rounding.isPerDay();
+		if (perDay) {
+			if (!inDay) {
+				dayEnd = Periods.getEnd(Periods.DAY, Periods.getStart(
+						Periods.DAY, start));
+				dayMillis = 0;
+				inDay = true;
+			}
+			dayMillis += sessionMillis;
+		}
+		for (int i = 0; i < kinds.length; i++) {
+			if (sessionCounts[i] == 0) {
+				periodStarts[i] = Periods.getStart(kinds[i], start);
+				periodEnds[i] = Periods.getEnd(kinds[i], periodStarts[i]);
+			}
+			if (!perDay || kinds[i] == Periods.DAY) {
+				workMillis[i] += sessionMillis;
+			}
+			sessionCounts[i]++;
+			lastSessionIds[i] = id;
+			lastSessionStarts[i] = start;
+		}
+		return sessionMillis;
+	}
+
+	/**
+	 * Gives the totals of the periods not ended yet to the listener. Call
+	 * after the last session, or before sessions that are not to be summed
+	 * with the previous ones, such as those of another project.
+	 */
+	public void finish() {
+		if (inDay) {
+			endDay();
+		}
+		for (int i = 0; i < kinds.length; i++) {
+			if (sessionCounts[i] > 0) {
+				end(i);
+			}
+		}
+	}
+
+	/**
+	 * Adds the rounded work time of the day to the longer periods.
+	 */
+	private void endDay() {
+		long roundedMillis = rounding.round(dayMillis);
+		for (int i = 0; i < kinds.length; i++) {
+			if (kinds[i] != Periods.DAY) {
+				workMillis[i] += roundedMillis;
+			}
+		}
+		inDay = false;
+	}
+
+	private void end(int i) {
+		listener.periodEnded(kinds[i], periodStarts[i], workMillis[i],
+				sessionCounts[i], lastSessionIds[i], lastSessionStarts[i]);
+		workMillis[i] = 0;
+		sessionCounts[i] = 0;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Moves old ended sessions from the session table to the session_archive
+ * table, to keep the session table and its indexes small. The session_all
+ * view reads both tables, and the session_hot view the session table only.
+ * The session totals are kept as they are.
+ *
+ * @author Dag Rende
+ */
+public class SessionArchive {
+	/** view to read sessions from when the archive may hold some of them */
+	public static final String ALL_SESSIONS = "session_all";
+	/** view to read sessions from when the archive holds none of them */
+	public static final String HOT_SESSIONS = "session_hot";
+	private static final long UNKNOWN = Long.MAX_VALUE;
+	private static final String COLUMNS = "_id, project_id, start, end, comment, deleted, comment_id";
+	/** start of the sessions that are all after the archive, UNKNOWN if not read yet */
+	private long end = UNKNOWN;
+
+	/**
+	 * Returns the start of the sessions to archive, given by the archive
+	 * setting.
+	 *
+	 * @return millisecond time of the start of the month that many months
+	 *         back, or 0 if sessions are not to be archived
+	 */
+	public static long getHorizon(Context context, long now) {
+		int months = Settings.getArchiveMonths(context);
+		if (months <= 0) {
+			return 0;
+		}
+		return Periods.move(Periods.MONTH, now, -months);
+	}
+
+	/**
+	 * Moves the ended sessions starting before horizon to the archive. Call
+	 * within a transaction, and call invalidate when it is ended.
+	 *
+	 * @return number of sessions moved
+	 */
+	public int archive(SQLiteDatabase db, long horizon) {
+		String[] args = new String[] { Long.toString(horizon) };
+		db.execSQL("insert into session_archive (" + COLUMNS + ") select "
+				+ COLUMNS + " from session where end is not null and start < ?",
+				args);
+		return db.delete("session", "end is not null and start < ?", args);
+	}
+
+	/**
+	 * Returns the table to read the sessions starting at or after from.
+	 *
+	 * @param from
+	 *            min start of the sessions read, 0 for all
+	 * @return HOT_SESSIONS if the archive has no such session, otherwise
+	 *         ALL_SESSIONS
+	 */
+	public synchronized String getTable(SQLiteDatabase db, long from) {
+		if (end == UNKNOWN) {
+			// read while holding the lock, so that a concurrent invalidate
+			// is not overwritten by a value read before it
+			Cursor cursor = db.rawQuery(
+					"select max(start) from session_archive", null);
+			try {
+				end = cursor.moveToNext() && !cursor.isNull(0) ? cursor
+						.getLong(0) + 1 : Long.MIN_VALUE;
+			} finally {
+				cursor.close();
+			}
+		}
+		return from >= end ? HOT_SESSIONS : ALL_SESSIONS;
+	}
+
+	/**
+	 * Makes the archive end be read again, after a change to the archived
+	 * sessions has been committed.
+	 */
+	public synchronized void invalidate() {
+		end = UNKNOWN;
+	}
+}
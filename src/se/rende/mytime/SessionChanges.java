@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import static se.rende.mytime.Constants.CONTENT_URI_SESSION;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentUris;
+import android.content.Intent;
+import android.net.Uri;
+
+/**
+ * Collects the sessions changed by a provider operation, to notify the
+ * watchers of just the changed projects and sessions. When one session
+ * changed, the ended interval it had and has are kept too, so that totals
+ * can be adjusted by the change.
+ *
+ * @author Dag Rende
+ */
+public class SessionChanges {
+	/** session id used when more than one session of a project changed */
+	private static final long MANY = -1;
+	private final Map<Long, Long> sessionIdByProjectId = new LinkedHashMap<Long, Long>();
+	private long sessionId = 0;
+	private long oldStart;
+	private long oldEnd;
+	private boolean hasOld;
+	private long newStart;
+	private long newEnd;
+	private boolean hasNew;
+
+	/**
+	 * Notes that a session has changed.
+	 */
+	public void add(long projectId, long sessionId) {
+		Long projectSessionId = sessionIdByProjectId.get(projectId);
+		if (projectSessionId == null) {
+			sessionIdByProjectId.put(projectId, sessionId);
+		} else if (projectSessionId != sessionId) {
+			sessionIdByProjectId.put(projectId, MANY);
+		}
+		if (this.sessionId == 0) {
+			this.sessionId = sessionId;
+		} else if (this.sessionId != sessionId) {
+			this.sessionId = MANY;
+		}
+	}
+
+	/**
+	 * Notes the interval of an ended session that is to be changed or
+	 * removed, after it is added.
+	 */
+	public void setOldInterval(long start, long end) {
+		oldStart = start;
+		oldEnd = end;
+		hasOld = true;
+	}
+
+	/**
+	 * Notes the interval of an ended session that has been changed or
+	 * inserted, after it is added.
+	 */
+	public void setNewInterval(long start, long end) {
+		newStart = start;
+		newEnd = end;
+		hasNew = true;
+	}
+
+	/**
+	 * @return true if no session has changed
+	 */
+	public boolean isEmpty() {
+		return sessionIdByProjectId.isEmpty();
+	}
+
+	/**
+	 * Returns the uris to notify. For each project with changes, the uri of
+	 * the session if only one session changed, otherwise the uri of the
+	 * project sessions. The same for the session table. The project sessions
+	 * uris are under the session uri, so when more than one session changed
+	 * only the session uri is notified.
+	 */
+	public List<Uri> getUris() {
+		List<Uri> uris = new ArrayList<Uri>();
+		if (sessionId == MANY) {
+			uris.add(CONTENT_URI_SESSION);
+			return uris;
+		}
+		for (Map.Entry<Long, Long> entry : sessionIdByProjectId.entrySet()) {
+			Uri projectSessionsUri = MyTimeContentProvider
+					.getProjectSessionsUri(entry.getKey());
+			if (entry.getValue() == MANY) {
+				uris.add(projectSessionsUri);
+			} else {
+				uris.add(ContentUris.withAppendedId(projectSessionsUri,
+						entry.getValue()));
+			}
+		}
+		if (sessionId != 0) {
+			uris.add(ContentUris.withAppendedId(CONTENT_URI_SESSION, sessionId));
+		}
+		return uris;
+	}
+
+	/**
+	 * Returns the INTENT_SESSION_CHANGE_ACTION broadcast of the changes.
+	 */
+	public Intent getIntent() {
+		Intent intent = new Intent(Constants.INTENT_SESSION_CHANGE_ACTION);
+		if (sessionIdByProjectId.size() == 1) {
+			intent.putExtra(Constants.INTENT_EXTRA_PROJECT_ID,
+					sessionIdByProjectId.keySet().iterator().next().longValue());
+		}
+		if (sessionId != MANY && sessionId != 0) {
+			intent.putExtra(Constants.INTENT_EXTRA_SESSION_ID, sessionId);
+			if (hasOld) {
+				intent.putExtra(Constants.INTENT_EXTRA_OLD_START, oldStart);
+				intent.putExtra(Constants.INTENT_EXTRA_OLD_END, oldEnd);
+			}
+			if (hasNew) {
+				intent.putExtra(Constants.INTENT_EXTRA_NEW_START, newStart);
+				intent.putExtra(Constants.INTENT_EXTRA_NEW_END, newEnd);
+			}
+		}
+		return intent;
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import java.util.Arrays;
+
+/**
+ * The intervals of sessions, to find those that overlap an interval. The
+ * sessions are kept in start order, as a balanced tree where the middle
+ * session of each range holds the latest end of the range, so a search
+ * skips the ranges that end before the interval or start after it, and
+ * takes time logarithmic in the number of sessions per session found.
+ *
+ * Uses no Android classes. Is immutable.
+ *
+ * @author Dag Rende
+ */
+public final class SessionIntervalIndex {
+	private final long[] ids;
+	private final long[] projectIds;
+	private final long[] starts;
+	private final long[] ends;
+	/** latest end of the range that each session is the middle of */
+	private final long[] maxEnds;
+
+	/**
+	 * Is given each pair of overlapping sessions.
+	 */
+	public interface OverlapListener {
+		/**
+		 * @param first
+		 *            index of the session starting first
+		 * @param second
+		 *            index of the other session
+		 */
+		void overlap(int first, int second);
+	}
+
+	/**
+	 * @param ids
+	 *            ids of the sessions, in start order
+	 * @param projectIds
+	 *            project ids of the sessions
+	 * @param starts
+	 *            start times of the sessions, in order
+	 * @param ends
+	 *            end times of the sessions, Long.MAX_VALUE for a running
+	 *            session
+	 */
+	public SessionIntervalIndex(long[] ids, long[] projectIds, long[] starts,
+			long[] ends) {
+		int n = ids.length;
+		if (projectIds.length != n || starts.length != n || ends.length != n) {
+			throw new IllegalArgumentException("lengths differ");
+		}
+		for (int i = 1; i < n; i++) {
+			if (starts[i] < starts[i - 1]) {
+				throw new IllegalArgumentException("not in start order at " + i);
+			}
+		}
+		this.ids = ids;
+		this.projectIds = projectIds;
+		this.starts = starts;
+		this.ends = ends;
+		maxEnds = new long[n];
+		buildMaxEnds(0, n);
+	}
+
+	private long buildMaxEnds(int from, int to) {
+		if (from >= to) {
+			return Long.MIN_VALUE;
+		}
+		int mid = (from + to) >>> 1;
+		long maxEnd = Math.max(ends[mid], Math.max(buildMaxEnds(from, mid),
+				buildMaxEnds(mid + 1, to)));
+		maxEnds[mid] = maxEnd;
+		return maxEnd;
+	}
+
+	/**
+	 * Returns the number of sessions.
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	public long getId(int index) {
+		return ids[index];
+	}
+
+	public long getProjectId(int index) {
+		return projectIds[index];
+	}
+
+	public long getStart(int index) {
+		return starts[index];
+	}
+
+	public long getEnd(int index) {
+		return ends[index];
+	}
+
+	/**
+	 * Returns the sessions that overlap [start, end), in start order.
+	 *
+	 * @param exceptId
+	 *            id of a session to leave out, such as the one being edited,
+	 *            or -1
+	 * @return indexes of the sessions
+	 */
+	public int[] findOverlaps(long start, long end, long exceptId) {
+		int[] found = new int[4];
+		int count = 0;
+		// ranges to search, from and to, no more than two per tree level
+		int[] stack = new int[128];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = ids.length;
+		while (top > 0) {
+			int to = stack[--top];
+			int from = stack[--top];
+			if (from >= to) {
+				continue;
+			}
+			int mid = (from + to) >>> 1;
+			if (maxEnds[mid] <= start) {
+				continue;
+			}
+			// the sessions after mid start after it, so only those of a
+			// middle session starting before end can overlap
+			if (starts[mid] < end) {
+				stack[top++] = mid + 1;
+				stack[top++] = to;
+				if (ends[mid] > start && ids[mid] != exceptId) {
+					if (count == found.length) {
+						found = copyOf(found, count * 2);
+					}
+					found[count++] = mid;
+				}
+			}
+			stack[top++] = from;
+			stack[top++] = mid;
+		}
+		int[] result = copyOf(found, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Gives every pair of overlapping sessions to the listener, in one pass
+	 * over the sessions in start order.
+	 */
+	public void findAllOverlaps(OverlapListener listener) {
+		int n = ids.length;
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n && starts[j] < ends[i]; j++) {
+				if (ends[j] > starts[i]) {
+					listener.overlap(i, j);
+				}
+			}
+		}
+	}
+
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(length, array.length));
+		return copy;
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+
+/**
+ * The week and month totals shown in the session list of a project. They
+ * are read from the project totals on a background thread when a page of
+ * sessions is read, ahead of the rows that show them, so that binding a row
+ * never waits for the database. When one session changes, the totals of
+ * the periods it was and is in are adjusted by the change instead of read
+ * again.
+ *
+ * To be used from the UI thread only, where it is made.
+ *
+ * @author Dag Rende
+ */
+public class SessionListTotals {
+	private static final int[] KINDS = { Periods.WEEK, Periods.MONTH };
+	/** the columns of the totals read for each page of sessions */
+	public static final String[] TOTAL_COLUMNS = { "period_start", "work_ms",
+			"sessions", "last_session_id", "last_session_start" };
+	private final Context context;
+	private final long projectId;
+	private final Runnable onLoaded;
+	private final Handler handler = new Handler();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final Kind[] kinds = new Kind[Periods.KINDS.length];
+	/** session starts asked for so far, to ask again after clear */
+	private long requestedFrom = Long.MAX_VALUE;
+	private long requestedTo = Long.MIN_VALUE;
+	/** changed by clear, so that reads begun before are thrown away */
+	private int generation;
+	private boolean closed;
+
+	/**
+	 * The totals of one kind of period, by period start.
+	 */
+	private static class Kind {
+		final LongLongMap workMillis = new LongLongMap();
+		final LongLongMap sessionCounts = new LongLongMap();
+		final LongLongMap lastSessionIds = new LongLongMap();
+		final LongLongMap lastSessionStarts = new LongLongMap();
+		/** period start by the id of the last session of the period */
+		final LongLongMap periodsByLastSessionId = new LongLongMap();
+		/** the starts of the periods read, as keys */
+		final LongLongMap loaded = new LongLongMap();
+		/** the starts of the periods asked for, as keys */
+		final LongLongMap requested = new LongLongMap();
+		/** number of reads in progress by period start */
+		final LongLongMap reading = new LongLongMap();
+
+		void clear() {
+			workMillis.clear();
+			sessionCounts.clear();
+			lastSessionIds.clear();
+			lastSessionStarts.clear();
+			periodsByLastSessionId.clear();
+			loaded.clear();
+			requested.clear();
+			reading.clear();
+		}
+
+		void removePeriod(long periodStart) {
+			if (lastSessionIds.containsKey(periodStart)) {
+				periodsByLastSessionId.remove(lastSessionIds.get(periodStart, 0));
+			}
+			workMillis.remove(periodStart);
+			sessionCounts.remove(periodStart);
+			lastSessionIds.remove(periodStart);
+			lastSessionStarts.remove(periodStart);
+		}
+
+		void setLastSession(long periodStart, long sessionId, long start) {
+			if (lastSessionIds.containsKey(periodStart)) {
+				periodsByLastSessionId.remove(lastSessionIds.get(periodStart, 0));
+			}
+			lastSessionIds.put(periodStart, sessionId);
+			lastSessionStarts.put(periodStart, start);
+			periodsByLastSessionId.put(sessionId, periodStart);
+		}
+
+		/**
+		 * Returns true if a session comes after the last session of a period,
+		 * by start and then by id as the session list is ordered.
+		 */
+		boolean isAfterLastSession(long periodStart, long sessionId, long start) {
+			long lastStart = lastSessionStarts.get(periodStart, 0);
+			return start > lastStart || start == lastStart
+					&& sessionId > lastSessionIds.get(periodStart, 0);
+		}
+	}
+
+	/**
+	 * @param onLoaded
+	 *            run when totals have been read or changed, to show them
+	 */
+	public SessionListTotals(Context context, long projectId, Runnable onLoaded) {
+		this.context = context;
+		this.projectId = projectId;
+		this.onLoaded = onLoaded;
+		for (int kind : KINDS) {
+			kinds[kind] = new Kind();
+		}
+	}
+
+	/**
+	 * Starts reading the totals of the weeks and months of the sessions
+	 * starting in [from, to], that are not read or being read.
+	 */
+	public void request(long from, long to) {
+		requestedFrom = Math.min(requestedFrom, from);
+		requestedTo = Math.max(requestedTo, to);
+		for (int kind : KINDS) {
+			LongLongMap requested = kinds[kind].requested;
+			long periodFrom = -1;
+			long periodTo = -1;
+			for (long periodStart = Periods.getStart(kind, from); periodStart <= to; periodStart = Periods
+					.getEnd(kind, periodStart)) {
+				if (!requested.containsKey(periodStart)) {
+					requested.put(periodStart, 0);
+					if (periodFrom == -1) {
+						periodFrom = periodStart;
+					}
+					periodTo = Periods.getEnd(kind, periodStart);
+				}
+			}
+			if (periodFrom != -1) {
+				read(kind, periodFrom, periodTo);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the total of the period of kind that time is in has
+	 * been read.
+	 */
+	public boolean isLoaded(int kind, long time) {
+		return kinds[kind].loaded.containsKey(Periods.getStart(kind, time));
+	}
+
+	/**
+	 * Returns true if there is a total of kind ending with the session.
+	 */
+	public boolean hasTotal(int kind, long sessionId) {
+		return kinds[kind].periodsByLastSessionId.containsKey(sessionId);
+	}
+
+	/**
+	 * Returns the work ms of the period of kind ending with the session, 0
+	 * if none.
+	 */
+	public long getTotal(int kind, long sessionId) {
+		Kind k = kinds[kind];
+		return k.workMillis.get(k.periodsByLastSessionId.get(sessionId, 0), 0);
+	}
+
+	/**
+	 * Adjusts the totals by the change of one session. An interval is given
+	 * only if the session was or is ended, as other sessions are not summed.
+	 * If days are rounded, the totals are sums of rounded days, so the
+	 * periods changed are read again instead.
+	 *
+	 * @param hasOld
+	 *            true if the session was ended before the change
+	 * @param hasNew
+	 *            true if the session is ended after the change
+	 */
+	public void update(long sessionId, boolean hasOld, long oldStart,
+			long oldEnd, boolean hasNew, long newStart, long newEnd) {
+		WorkRules workRules = Settings.getWorkRules(context);
+		if (workRules.getRounding().isPerDay()) {
+			for (int kind : KINDS) {
+				if (hasOld) {
+					readIfRequested(kind, Periods.getStart(kind, oldStart));
+				}
+				if (hasNew) {
+					readIfRequested(kind, Periods.getStart(kind, newStart));
+				}
+			}
+			return;
+		}
+		for (int kind : KINDS) {
+			Kind k = kinds[kind];
+			if (hasOld) {
+				long periodStart = Periods.getStart(kind, oldStart);
+				boolean lastUnknown = false;
+				if (k.loaded.containsKey(periodStart)) {
+					k.workMillis.add(periodStart, -workRules.getWorkMillis(
+							oldStart, oldEnd));
+					k.sessionCounts.add(periodStart, -1);
+					if (k.sessionCounts.get(periodStart, 0) <= 0) {
+						k.removePeriod(periodStart);
+					} else if (k.lastSessionIds.get(periodStart, -1) == sessionId
+							&& !(hasNew && Periods.getStart(kind, newStart) == periodStart && newStart >= oldStart)) {
+						// which session is last now is not known here
+						lastUnknown = true;
+					}
+				}
+				if (lastUnknown) {
+					read(kind, periodStart, Periods.getEnd(kind, periodStart));
+				} else {
+					readIfReading(kind, periodStart);
+				}
+			}
+			if (hasNew) {
+				long periodStart = Periods.getStart(kind, newStart);
+				if (k.loaded.containsKey(periodStart)) {
+					k.workMillis.add(periodStart, workRules.getWorkMillis(
+							newStart, newEnd));
+					k.sessionCounts.add(periodStart, 1);
+					if (!k.lastSessionIds.containsKey(periodStart)
+							|| k.lastSessionIds.get(periodStart, 0) == sessionId
+							|| k.isAfterLastSession(periodStart, sessionId,
+									newStart)) {
+						k.setLastSession(periodStart, sessionId, newStart);
+					}
+				}
+				readIfReading(kind, periodStart);
+			}
+		}
+		onLoaded.run();
+	}
+
+	/**
+	 * Reads the total of a period again if it has been asked for.
+	 */
+	private void readIfRequested(int kind, long periodStart) {
+		if (kinds[kind].requested.containsKey(periodStart)) {
+			read(kind, periodStart, Periods.getEnd(kind, periodStart));
+		}
+	}
+
+	/**
+	 * Reads the total of a period again if a read of it is in progress, as
+	 * the read may be from before a change.
+	 */
+	private void readIfReading(int kind, long periodStart) {
+		if (kinds[kind].reading.get(periodStart, 0) > 0) {
+			read(kind, periodStart, Periods.getEnd(kind, periodStart));
+		}
+	}
+
+	/**
+	 * Throws away the totals read, and reads those asked for so far again.
+	 */
+	public void clear() {
+		generation++;
+		for (int kind : KINDS) {
+			kinds[kind].clear();
+		}
+		if (requestedFrom <= requestedTo) {
+			request(requestedFrom, requestedTo);
+		}
+	}
+
+	/**
+	 * Stops reading totals. Call when the list is destroyed.
+	 */
+	public void close() {
+		closed = true;
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Reads the totals of the periods of kind starting in [from, to) on the
+	 * background thread, and puts them in place of those of the periods on
+	 * the UI thread. Reads are done in the order asked for.
+	 */
+	private void read(final int kind, final long from, final long to) {
+		final int readGeneration = generation;
+		for (long periodStart = from; periodStart < to; periodStart = Periods
+				.getEnd(kind, periodStart)) {
+			kinds[kind].reading.add(periodStart, 1);
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				Cursor cursor = context.getContentResolver().query(
+						MyTimeContentProvider.getProjectTotalsUri(projectId, kind, from, to),
+						TOTAL_COLUMNS, null, null, null);
+				final long[][] rows;
+				try {
+					rows = new long[cursor.getCount()][];
+					for (int i = 0; cursor.moveToNext(); i++) {
+						rows[i] = new long[] { cursor.getLong(0),
+								cursor.getLong(1), cursor.getLong(2),
+								cursor.isNull(3) ? -1 : cursor.getLong(3),
+								cursor.getLong(4) };
+					}
+				} finally {
+					cursor.close();
+				}
+				handler.post(new Runnable() {
+					public void run() {
+						if (closed || readGeneration != generation) {
+							return;
+						}
+						Kind k = kinds[kind];
+						for (long periodStart = from; periodStart < to; periodStart = Periods
+								.getEnd(kind, periodStart)) {
+							k.removePeriod(periodStart);
+							k.loaded.put(periodStart, 0);
+							k.reading.add(periodStart, -1);
+						}
+						for (long[] row : rows) {
+							k.workMillis.put(row[0], row[1]);
+							k.sessionCounts.put(row[0], row[2]);
+							if (row[3] != -1) {
+								k.setLastSession(row[0], row[3], row[4]);
+							}
+						}
+						onLoaded.run();
+					}
+				});
+			}
+		});
+	}
+}
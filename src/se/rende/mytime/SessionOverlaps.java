@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import static se.rende.mytime.Constants.CONTENT_URI_PROJECT;
+import static se.rende.mytime.Constants.CONTENT_URI_SESSION;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.app.ListActivity;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.text.format.DateFormat;
+import android.view.View;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+/**
+ * Lists all pairs of overlapping sessions, of any projects, found in one
+ * pass over the session intervals. Click a pair to edit the later session.
+ * The pairs are found again on return if the sessions have changed.
+ *
+ * @author Dag Rende
+ */
+public class SessionOverlaps extends ListActivity {
+	private final Handler handler = new Handler();
+	private final ExecutorService finder = Executors.newSingleThreadExecutor();
+	private boolean destroyed;
+	/** the intervals the pairs listed were found in, used on the finder */
+	private SessionIntervalIndex shownIndex;
+	/** id of the later session of each pair listed */
+	private final List<Long> sessionIds = new ArrayList<Long>();
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.session_overlaps);
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		finder.execute(new Runnable() {
+			public void run() {
+				findOverlaps();
+			}
+		});
+	}
+
+	@Override
+	protected void onDestroy() {
+		destroyed = true;
+		finder.shutdownNow();
+		super.onDestroy();
+	}
+
+	@Override
+	protected void onListItemClick(ListView l, View v, int position, long id) {
+		super.onListItemClick(l, v, position, id);
+		Intent intent = new Intent(this, Session.class);
+		intent.setData(ContentUris.withAppendedId(CONTENT_URI_SESSION,
+				sessionIds.get(position)));
+		startActivity(intent);
+	}
+
+	/**
+	 * Finds the overlaps on this background thread and shows them on the UI
+	 * thread, unless the intervals are the ones they were found in before.
+	 */
+	private void findOverlaps() {
+		final SessionIntervalIndex index = Sessions.getIntervalIndex(this);
+		if (index == shownIndex) {
+			return;
+		}
+		shownIndex = index;
+		final Map<Long, String> projectNames = getProjectNames(this);
+		final List<String> lines = new ArrayList<String>();
+		final List<Long> ids = new ArrayList<Long>();
+		index.findAllOverlaps(new SessionIntervalIndex.OverlapListener() {
+			public void overlap(int first, int second) {
+				lines.add(describe(SessionOverlaps.this, index, first,
+						projectNames)
+						+ "\n"
+						+ describe(SessionOverlaps.this, index, second,
+								projectNames));
+				ids.add(index.getId(second));
+			}
+		});
+		handler.post(new Runnable() {
+			public void run() {
+				if (destroyed) {
+					return;
+				}
+				sessionIds.clear();
+				sessionIds.addAll(ids);
+				setListAdapter(new ArrayAdapter<String>(SessionOverlaps.this,
+						android.R.layout.simple_list_item_1, lines));
+				((TextView) findViewById(android.R.id.empty))
+						.setText(R.string.no_overlaps);
+			}
+		});
+	}
+
+	/**
+	 * Returns the names of the projects by id.
+	 */
+	static Map<Long, String> getProjectNames(Context context) {
+		Map<Long, String> names = new HashMap<Long, String>();
+		Cursor cursor = context.getContentResolver().query(
+				CONTENT_URI_PROJECT, new String[] { "_id", "name" }, null,
+				null, null);
+		try {
+			while (cursor.moveToNext()) {
+				names.put(cursor.getLong(0), cursor.getString(1));
+			}
+		} finally {
+			cursor.close();
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the project, start and end of a session, as one line.
+	 */
+	static String describe(Context context, SessionIntervalIndex index,
+			int i, Map<Long, String> projectNames) {
+		long start = index.getStart(i);
+		long end = index.getEnd(i);
+		String projectName = projectNames.get(index.getProjectId(i));
+		java.text.DateFormat dateFormat = DateFormat.getDateFormat(context);
+		java.text.DateFormat timeFormat = DateFormat.getTimeFormat(context);
+		return (projectName != null ? projectName : "")
+				+ " "
+				+ dateFormat.format(start)
+				+ " "
+				+ timeFormat.format(start)
+				+ " - "
+				+ (end == Long.MAX_VALUE ? context
+						.getString(R.string.project_status_running)
+						: timeFormat.format(end));
+	}
+}
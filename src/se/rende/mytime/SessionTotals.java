@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Keeps the session_total table up to date with the sessions. It holds
+ * the work time of all ended sessions of a project summed per day, week and
+ * month, keyed by the period start (see {@link Periods}), and the last
+ * ended session of each period. Sessions are counted in the period their
+ * start time is in.
+ *
+ * All methods are to be called within a transaction on the database.
+ *
+ * @author Dag Rende
+ */
+public class SessionTotals {
+	private static final String[] SESSION_COLUMNS = { "_id", "project_id",
+			"start", "end" };
+	private static final String[] SESSION_TABLES = { "session",
+			"session_archive" };
+	private static final String INSERT_PERIOD_SQL = "insert or ignore into session_total "
+			+ "(project_id, kind, period_start) values (?, ?, ?)";
+	private static final String ADD_TO_PERIOD_SQL = "update session_total "
+			+ "set work_ms = work_ms + ?, sessions = sessions + ? "
+			+ "where project_id=? and kind=? and period_start=?";
+	private static final String PERIOD_MILLIS_SQL = "select work_ms from session_total "
+			+ "where project_id=? and kind=? and period_start=?";
+	private static final String DELETE_EMPTY_PERIOD_SQL = "delete from session_total "
+			+ "where project_id=? and kind=? and period_start=? and sessions <= 0";
+	private static final String INSERT_TOTAL_SQL = "insert into session_total "
+			+ "(project_id, kind, period_start, work_ms, sessions, "
+			+ "last_session_id, last_session_start) "
+			+ "values (?, ?, ?, ?, ?, ?, ?)";
+	/** makes a session the last of its period if it is after the last one */
+	private static final String SET_LAST_IF_LATER_SQL = "update session_total "
+			+ "set last_session_id=?, last_session_start=? "
+			+ "where project_id=? and kind=? and period_start=? "
+			+ "and (last_session_start is null or last_session_start < ? "
+			+ "or (last_session_start=? and last_session_id < ?))";
+	private static final String SET_LAST_SQL = "update session_total "
+			+ "set last_session_id=?, last_session_start=? "
+			+ "where project_id=? and kind=? and period_start=?";
+	private static final String IS_LAST_SQL = "select count(*) from session_total "
+			+ "where project_id=? and kind=? and period_start=? and last_session_id=?";
+	/**
+	 * The last ended session of a period in a session table, read backwards
+	 * from the period end on the project_id, start index.
+	 */
+	private static final String FIND_LAST_SQL = "select _id, start from %s "
+			+ "where project_id=? and start >= ? and start < ? "
+			+ "and end is not null and deleted=0 "
+			+ "order by start desc, _id desc limit 1";
+	private static final Map<String, String> TOTAL_PROJECTION_MAP = new HashMap<String, String>();
+	static {
+		TOTAL_PROJECTION_MAP.put("_id", "t.rowid as _id");
+		TOTAL_PROJECTION_MAP.put("period_start", "t.period_start");
+		TOTAL_PROJECTION_MAP.put("work_ms", "t.work_ms");
+		TOTAL_PROJECTION_MAP.put("sessions", "t.sessions");
+		TOTAL_PROJECTION_MAP.put("last_session_id", "t.last_session_id");
+		TOTAL_PROJECTION_MAP.put("last_session_start", "t.last_session_start");
+	}
+	/** the columns of a project totals query */
+	public static final String[] TOTAL_COLUMNS = { "_id", "period_start",
+			"work_ms", "sessions", "last_session_id", "last_session_start" };
+	private final Context context;
+	private final StatementCache statementCache = new StatementCache(12);
+	/**
+	 * project id, kind and start of the periods whose last session was
+	 * removed, to be found again by findLastSessions
+	 */
+	private final List<long[]> lastSessionsRemoved = new ArrayList<long[]>();
+
+	/**
+	 * @param context
+	 *            used to read the precision, rounding and lunch settings
+	 */
+	public SessionTotals(Context context) {
+		this.context = context;
+	}
+
+	/**
+	 * @return the cache of the statements that update the totals
+	 */
+	public StatementCache getStatementCache() {
+		return statementCache;
+	}
+
+	/**
+	 * Releases the compiled statements.
+	 */
+	public void close() {
+		statementCache.clear();
+	}
+
+	/**
+	 * Adds a new session to the totals.
+	 */
+	public void add(SQLiteDatabase db, long sessionId, Long projectId,
+			Long start, Long end) {
+		if (projectId != null && start != null && end != null) {
+			change(db, sessionId, projectId, start, end, 1);
+		}
+	}
+
+	/**
+	 * Adds the current state of the specified sessions to the totals.
+	 *
+	 * @param sessionIds
+	 *            as returned by remove
+	 * @param changes
+	 *            where the sessions are noted as changed
+	 */
+	public void add(SQLiteDatabase db, long[] sessionIds,
+			SessionChanges changes) {
+		String[] selectionArgs = new String[1];
+		for (long sessionId : sessionIds) {
+			selectionArgs[0] = Long.toString(sessionId);
+			Cursor cursor = db.query(SessionArchive.ALL_SESSIONS, SESSION_COLUMNS, "_id=?",
+					selectionArgs, null, null, null);
+			try {
+				if (cursor.moveToNext()) {
+					changes.add(cursor.getLong(1), sessionId);
+					if (!cursor.isNull(3)) {
+						change(db, sessionId, cursor.getLong(1), cursor
+								.getLong(2), cursor.getLong(3), 1);
+						changes.setNewInterval(cursor.getLong(2), cursor
+								.getLong(3));
+					}
+				}
+			} finally {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Removes the sessions matching the selection from the totals. Call
+	 * before the sessions are updated or deleted, and findLastSessions
+	 * after.
+	 *
+	 * @param changes
+	 *            where the sessions are noted as changed
+	 * @return ids of the removed sessions, to add them again after an update
+	 */
+	public long[] remove(SQLiteDatabase db, String selection,
+			String[] selectionArgs, SessionChanges changes) {
+		Cursor cursor = db.query(SessionArchive.ALL_SESSIONS, SESSION_COLUMNS, selection,
+				selectionArgs, null, null, null);
+		try {
+			long[] sessionIds = new long[cursor.getCount()];
+			int i = 0;
+			while (cursor.moveToNext()) {
+				sessionIds[i++] = cursor.getLong(0);
+				changes.add(cursor.getLong(1), cursor.getLong(0));
+				if (!cursor.isNull(3)) {
+					change(db, cursor.getLong(0), cursor.getLong(1), cursor
+							.getLong(2), cursor.getLong(3), -1);
+					changes.setOldInterval(cursor.getLong(2), cursor.getLong(3));
+				}
+			}
+			return sessionIds;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Finds the last session of the periods whose last session was removed.
+	 * Call after the removed sessions are updated or deleted.
+	 */
+	public void findLastSessions(SQLiteDatabase db) {
+		for (long[] period : lastSessionsRemoved) {
+			long projectId = period[0];
+			int kind = (int) period[1];
+			long periodStart = period[2];
+			long periodEnd = Periods.getEnd(kind, periodStart);
+			String[] args = { Long.toString(projectId),
+					Long.toString(periodStart), Long.toString(periodEnd) };
+			long lastId = -1;
+			long lastStart = Long.MIN_VALUE;
+			// each table by its own index, not by the union of both
+			for (String table : SESSION_TABLES) {
+				Cursor cursor = db.rawQuery(String.format(FIND_LAST_SQL,
+						table), args);
+				try {
+					if (cursor.moveToNext()
+							&& (cursor.getLong(1) > lastStart
+									|| cursor.getLong(1) == lastStart
+									&& cursor.getLong(0) > lastId)) {
+						lastId = cursor.getLong(0);
+						lastStart = cursor.getLong(1);
+					}
+				} finally {
+					cursor.close();
+				}
+			}
+			if (lastId != -1) {
+				execute(db, SET_LAST_SQL, lastId, lastStart, projectId, kind,
+						periodStart);
+			}
+		}
+		lastSessionsRemoved.clear();
+	}
+
+	/**
+	 * Queries the totals of a project, one row per period that has ended
+	 * sessions.
+	 *
+	 * @param projection
+	 *            some of TOTAL_COLUMNS, null for all
+	 * @param kind
+	 *            Periods.DAY, WEEK or MONTH
+	 * @param from
+	 *            min period start
+	 * @param to
+	 *            period starts are before this
+	 * @param orderBy
+	 *            null for period_start order
+	 */
+	public Cursor query(SQLiteDatabase db, String[] projection,
+			long projectId, int kind, long from, long to, String orderBy) {
+		SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+		builder.setTables("session_total t");
+		builder.setProjectionMap(TOTAL_PROJECTION_MAP);
+		return builder.query(db, projection != null ? projection
+				: TOTAL_COLUMNS,
+				"t.project_id=? and t.kind=? and t.period_start >= ? and t.period_start < ?",
+				new String[] { Long.toString(projectId),
+						Integer.toString(kind), Long.toString(from),
+						Long.toString(to) }, null, null,
+				orderBy != null ? orderBy : "period_start");
+	}
+
+	/**
+	 * Removes all totals of a project.
+	 */
+	public void removeProject(SQLiteDatabase db, long projectId) {
+		db.delete("session_total", "project_id=?",
+				new String[] { Long.toString(projectId) });
+	}
+
+	/**
+	 * Recalculates all totals from the sessions. Used when the precision,
+	 * rounding or lunch settings has changed.
+	 *
+	 * @return number of period totals written
+	 */
+	public int rebuild(final SQLiteDatabase db) {
+		db.delete("session_total", null, null);
+		final long[] projectId = { -1 };
+		final int[] count = new int[1];
+		SessionAggregator aggregator = new SessionAggregator(Settings
+				.getWorkRules(context), Periods.KINDS,
+				new SessionAggregator.Listener() {
+					public void periodEnded(int kind, long periodStart,
+							long workMillis, int sessionCount,
+							long lastSessionId, long lastSessionStart) {
+						execute(db, INSERT_TOTAL_SQL, projectId[0], kind,
+								periodStart, workMillis, sessionCount,
+								lastSessionId, lastSessionStart);
+						count[0]++;
+					}
+				});
+		Cursor cursor = db.query(SessionArchive.ALL_SESSIONS, SESSION_COLUMNS,
+				"end is not null", null, null, null, "project_id, start, _id");
+		try {
+			while (cursor.moveToNext()) {
+				if (cursor.getLong(1) != projectId[0]) {
+					// sessions are ordered by project, so the previous one is done
+					aggregator.finish();
+					projectId[0] = cursor.getLong(1);
+				}
+				aggregator.add(cursor.getLong(0), cursor.getLong(2), cursor
+						.getLong(3));
+			}
+			aggregator.finish();
+		} finally {
+			cursor.close();
+		}
+		return count[0];
+	}
+
+	/**
+	 * Adds (sign 1) or subtracts (sign -1) the work time of one session to
+	 * the day, week and month totals it belongs to. If days are rounded,
+	 * the week and month totals are changed by the change of the rounded
+	 * day total. The session is made the last of its periods if it is after
+	 * their last one, and a period whose last session is subtracted is noted
+	 * for findLastSessions.
+	 */
+	private void change(SQLiteDatabase db, long sessionId, long projectId,
+			long start, long end, int sign) {
+		WorkRules workRules = Settings.getWorkRules(context);
+		Rounding rounding = workRules.getRounding();
+		long sessionMillis = sign * workRules.getWorkMillis(start, end);
+		long longerMillis = sessionMillis;
+		if (rounding.isPerDay()) {
+			long dayStart = Periods.getStart(Periods.DAY, start);
+			execute(db, INSERT_PERIOD_SQL, projectId, Periods.DAY, dayStart);
+			long dayMillis = queryLong(db, PERIOD_MILLIS_SQL, projectId,
+					Periods.DAY, dayStart);
+			longerMillis = rounding.round(dayMillis + sessionMillis)
+					- rounding.round(dayMillis);
+		}
+		for (int kind : Periods.KINDS) {
+			long periodStart = Periods.getStart(kind, start);
+			execute(db, INSERT_PERIOD_SQL, projectId, kind, periodStart);
+			execute(db, ADD_TO_PERIOD_SQL, kind == Periods.DAY ? sessionMillis
+					: longerMillis, sign, projectId, kind, periodStart);
+			if (sign > 0) {
+				execute(db, SET_LAST_IF_LATER_SQL, sessionId, start, projectId,
+						kind, periodStart, start, start, sessionId);
+			} else {
+				if (queryLong(db, IS_LAST_SQL, projectId, kind, periodStart,
+						sessionId) > 0) {
+					lastSessionsRemoved.add(new long[] { projectId, kind,
+							periodStart });
+				}
+				execute(db, DELETE_EMPTY_PERIOD_SQL, projectId, kind,
+						periodStart);
+			}
+		}
+	}
+
+	/**
+	 * Runs a cached query of one number with the parameters bound in order.
+	 */
+	private long queryLong(SQLiteDatabase db, String sql, long... args) {
+		SQLiteStatement statement = statementCache.get(db, sql);
+		for (int i = 0; i < args.length; i++) {
+			statement.bindLong(i + 1, args[i]);
+		}
+		return statement.simpleQueryForLong();
+	}
+
+	/**
+	 * Runs a cached statement with the parameters bound in order.
+	 */
+	private void execute(SQLiteDatabase db, String sql, long... args) {
+		SQLiteStatement statement = statementCache.get(db, sql);
+		for (int i = 0; i < args.length; i++) {
+			statement.bindLong(i + 1, args[i]);
+		}
+		statement.execute();
+	}
+}
@@ -22,20 +22,24 @@ import static se.rende.mytime.Constants.CONTENT_URI_SESSION;
 import java.text.DateFormatSymbols;
 import java.text.NumberFormat;
 import java.util.Calendar;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import android.app.ListActivity;
 import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.text.format.DateFormat;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -44,6 +48,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
@@ -56,7 +62,6 @@ import android.widget.TextView;
  * @author Dag Rende
  */
 public class Sessions extends ListActivity implements OnClickListener {
-	private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
 	private static final NumberFormat hoursFormat = NumberFormat.getInstance();
 	private static final String[] FROM = { "start", "end", "_id+5", "comment", "_id",
 			"_id+1", "_id+2", "_id+3", "_id+4" };
@@ -64,12 +69,37 @@ public class Sessions extends ListActivity implements OnClickListener {
 			R.id.comment, R.id.hours, R.id.month_total_label, R.id.month_total,
 			R.id.week_total_label, R.id.week_total };
 	private long currentProjectId = 1;
-	private TreeMap<Long, Float> monthTotals = new TreeMap<Long, Float>();
-	private Set<String> monthTotalsMonths = new HashSet<String>();
-	private TreeMap<Long, Float> weekTotals = new TreeMap<Long, Float>();
-	private Set<String> weekTotalsWeeks = new HashSet<String>();
+	private SessionListTotals listTotals;
 	private DateFormatSymbols dateFormatSymbols = new DateFormatSymbols();
 	private IntentFilter dbUpdateFilter;
+	private ContentObserver sessionsObserver;
+	/** number of sessions read at a time while scrolling the list */
+	private static final int PAGE_SIZE = 50;
+	/** all sessions, null until first read */
+	private static volatile SessionIntervalIndex intervalIndex;
+	/** the sums of INTERVAL_SUMS of the sessions of intervalIndex */
+	private static long[] intervalIndexSums;
+	/** changed by each change of sessions, to check the index again */
+	private static volatile int intervalIndexChanges;
+	/** the value of intervalIndexChanges when the index was last checked */
+	private static volatile int intervalIndexCheckedAt;
+	/** counts the changes of sessions */
+	private static ContentObserver intervalIndexObserver;
+	/**
+	 * Sums of the columns of the interval index, split so that they cannot
+	 * overflow, and of start and end weighted by id, so that sessions that
+	 * swap times are seen too.
+	 */
+	private static final String[] INTERVAL_SUMS = { "count(*)",
+			"count(end)", "sum(_id)", "sum(project_id)",
+			"sum(start / 86400000)", "sum(start % 86400000)",
+			"sum(end / 86400000)", "sum(end % 86400000)",
+			"sum(_id % 65536 * (start / 60000 % 65536))",
+			"sum(_id % 65536 * (end / 60000 % 65536))" };
+	/** the pages of sessions shown, newest first */
+	private final List<Cursor> sessionPages = new ArrayList<Cursor>();
+	private int loadedSessionCount;
+	private boolean moreSessions;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -92,18 +122,58 @@ public class Sessions extends ListActivity implements OnClickListener {
 
 		hoursFormat.setMaximumFractionDigits(2);
 
-		showSessions(getSessions(currentProjectId));
+		listTotals = new SessionListTotals(this, currentProjectId, new Runnable() {
+			public void run() {
+				((SimpleCursorAdapter) getListAdapter()).notifyDataSetChanged();
+			}
+		});
+		showSessions(loadSessions(PAGE_SIZE));
+		getListView().setOnScrollListener(new OnScrollListener() {
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+			}
+
+			public void onScroll(AbsListView view, int firstVisibleItem,
+					int visibleItemCount, int totalItemCount) {
+				if (moreSessions
+						&& firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 2) {
+					loadNextSessions();
+				}
+			}
+		});
 
 		adjustButtonEnablement();
 		
 	    dbUpdateFilter = new IntentFilter(Constants.INTENT_DB_UPDATE_ACTION);
+	    sessionsObserver = new ContentObserver(new Handler()) {
+			@Override
+			public void onChange(boolean selfChange) {
+				// only sessions of this project changed, read the sessions
+				// loaded so far again, the totals are kept by sessionChangeReceiver
+				((SimpleCursorAdapter) getListAdapter()).changeCursor(loadSessions(Math
+						.max(loadedSessionCount, PAGE_SIZE)));
+			}
+		};
+		getContentResolver().registerContentObserver(
+				MyTimeContentProvider.getProjectSessionsUri(currentProjectId),
+				true, sessionsObserver);
+		// also while paused, as sessions are edited in an activity over this
+		registerReceiver(sessionChangeReceiver, new IntentFilter(
+				Constants.INTENT_SESSION_CHANGE_ACTION));
+	}
+
+	@Override
+	protected void onDestroy() {
+		getContentResolver().unregisterContentObserver(sessionsObserver);
+		unregisterReceiver(sessionChangeReceiver);
+		listTotals.close();
+		closeSessionPages();
+		super.onDestroy();
 	}
 
 	@Override
 	protected void onResume() {
 		registerReceiver(dbUpdateReceiver, dbUpdateFilter);
 		super.onResume();
-		clearTotals();
 		adjustButtonEnablement();
 
 		runOnUiThread(new Runnable() {
@@ -120,218 +190,10 @@ public class Sessions extends ListActivity implements OnClickListener {
 	}
 
 	/**
-	 * Make week and month totals be recalculated next time sessions list is updated.
+	 * Make week and month totals be read again.
 	 */
 	private void clearTotals() {
-		monthTotals.clear();
-		monthTotalsMonths.clear();
-		weekTotals.clear();
-		weekTotalsWeeks.clear();
-	}
-
-	/**
-	 * Calculates week total for the week containing the specified time.
-	 * @param time millisecond time to calculate total for
-	 */
-	public void calculateWeekTotals(long time) {
-		Calendar cal = Calendar.getInstance();
-		cal.setTimeInMillis(time);
-		String timeWeekKey = cal.get(Calendar.YEAR) + "-"
-				+ cal.get(Calendar.WEEK_OF_YEAR);
-		if (!weekTotalsWeeks.contains(timeWeekKey)) {
-			int firstDayOfWeek = cal.getFirstDayOfWeek();
-			int dayOfWeek = cal.get(Calendar.DAY_OF_WEEK);
-			cal.setTimeInMillis(time - (dayOfWeek - firstDayOfWeek) * DAY_MILLIS);
-			cal.set(Calendar.HOUR_OF_DAY, 0);
-			cal.set(Calendar.MINUTE, 0);
-			cal.set(Calendar.SECOND, 0);
-			cal.set(Calendar.MILLISECOND, 0);
-			long fromTime = cal.getTimeInMillis();
-			long toTime = fromTime + 7L * DAY_MILLIS;
-			Cursor cursor = getContentResolver().query(CONTENT_URI_SESSION,
-				new String[] { "_id", "start", "end" },
-				"project_id=? and end is not null and start between ? and ?",
-				new String[] { Long.toString(currentProjectId), Long.toString(fromTime), Long.toString(toTime) }, "start desc");
-			
-			try {
-				String currentWeekKey = "";
-				float currentWeekTotal = 0f;
-				long firstSessionIdOfWeek = 0;
-				while (cursor.moveToNext()) {
-					// week
-					long sessionId = cursor.getLong(0);
-					long startTime = cursor.getLong(1);
-					long endTime = cursor.getLong(2);
-
-					cal.setTimeInMillis(startTime);
-					String weekKey = cal.get(Calendar.YEAR) + "-"
-							+ cal.get(Calendar.WEEK_OF_YEAR);
-
-					if (!currentWeekKey.equals(weekKey)) {
-						// beginning of a new week
-						if (currentWeekKey.length() > 0) {
-							weekTotals.put(firstSessionIdOfWeek,
-									currentWeekTotal);
-							weekTotalsWeeks.add(currentWeekKey);
-						}
-						currentWeekKey = weekKey;
-						currentWeekTotal = 0f;
-						firstSessionIdOfWeek = sessionId;
-					}
-					currentWeekTotal += getWorkHours(this, startTime,
-							endTime);
-				}
-				if (currentWeekKey.length() > 0) {
-					weekTotals.put(firstSessionIdOfWeek,
-							currentWeekTotal);
-					weekTotalsWeeks.add(currentWeekKey);
-				}
-			} finally {
-				cursor.close();
-			}
-		}
-	}
-	
-	/**
-	 * Calculates week total for the week containing the specified time.
-	 * @param time millisecond time to calculate total for
-	 */
-	public void calculateMonthTotals(long time) {
-		Calendar cal = Calendar.getInstance();
-		cal.setTimeInMillis(time);
-		String timeMonthKey = cal.get(Calendar.YEAR) + "-"
-				+ cal.get(Calendar.MONTH);
-		if (!monthTotalsMonths.contains(timeMonthKey)) {
-			cal.set(Calendar.DAY_OF_MONTH, 1);
-			cal.set(Calendar.HOUR_OF_DAY, 0);
-			cal.set(Calendar.MINUTE, 0);
-			cal.set(Calendar.SECOND, 0);
-			cal.set(Calendar.MILLISECOND, 0);
-			long fromTime = cal.getTimeInMillis();
-			cal.add(Calendar.MONTH, 1);
-			long toTime = cal.getTimeInMillis();
-			Cursor cursor = getContentResolver().query(CONTENT_URI_SESSION,
-				new String[] { "_id", "start", "end" },
-				"project_id=? and end is not null and start between ? and ?",
-				new String[] { Long.toString(currentProjectId), Long.toString(fromTime), Long.toString(toTime) }, "start desc");
-			
-			try {
-				String currentMonthKey = "";
-				float currentMonthTotal = 0f;
-				long firstSessionIdOfMonth = 0;
-				while (cursor.moveToNext()) {
-					// week
-					long sessionId = cursor.getLong(0);
-					long startTime = cursor.getLong(1);
-					long endTime = cursor.getLong(2);
-
-					cal.setTimeInMillis(startTime);
-					String monthKey = cal.get(Calendar.YEAR) + "-"
-							+ cal.get(Calendar.MONTH);
-
-					if (!currentMonthKey.equals(monthKey)) {
-						// beginning of a new month
-						if (currentMonthKey.length() > 0) {
-							monthTotals.put(firstSessionIdOfMonth,
-									currentMonthTotal);
-							monthTotalsMonths.add(currentMonthKey);
-						}
-						currentMonthKey = monthKey;
-						currentMonthTotal = 0f;
-						firstSessionIdOfMonth = sessionId;
-					}
-					currentMonthTotal += getWorkHours(this, startTime,
-							endTime);
-		
-				}
-				if (currentMonthKey.length() > 0) {
-					monthTotals.put(firstSessionIdOfMonth,
-							currentMonthTotal);
-					monthTotalsMonths.add(currentMonthKey);
-				}
-			} finally {
-				cursor.close();
-			}
-		}
-	}
-	
-	/**
-	 * Clear both totals and add each totals for this project keyed by the id of
-	 * the last session object for each period.
-	 * 
-	 * @param monthTotals
-	 *            total hours by the id of last session this month
-	 * @param weekTotals
-	 *            total hours by the id of last session this week
-	 */
-	public static void calculateTotals(Context context, long projectId, TreeMap<Long, Float> monthTotals,
-			TreeMap<Long, Float> weekTotals) {
-		monthTotals.clear();
-		weekTotals.clear();
-		Cursor cursor = context.getContentResolver().query(
-				CONTENT_URI_SESSION,
-				new String[] { "_id", "start", "end" },
-				"project_id=? and end is not null",
-				new String[] { "" + projectId }, "start desc");
-		try {
-			if (true) {
-				String currentMonthKey = "";
-				float currentMonthTotal = 0f;
-				long firstSessionIdOfMonth = 0;
-				String currentWeekKey = "";
-				float currentWeekTotal = 0f;
-				long firstSessionIdOfWeek = 0;
-				while (cursor.moveToNext()) {
-					// month
-					// week
-					long sessionId = cursor.getLong(0);
-					long startTime = cursor.getLong(1);
-					long endTime = cursor.getLong(2);
-
-					Calendar cal = Calendar.getInstance();
-					cal.setTimeInMillis(startTime);
-					String monthKey = cal.get(Calendar.YEAR) + "-"
-							+ cal.get(Calendar.MONTH);
-					String weekKey = cal.get(Calendar.YEAR) + "-"
-							+ cal.get(Calendar.WEEK_OF_YEAR);
-
-					if (!currentMonthKey.equals(monthKey)) {
-						// beginning of a new month
-						if (currentMonthKey.length() > 0) {
-							monthTotals.put(firstSessionIdOfMonth,
-									currentMonthTotal);
-						}
-						currentMonthKey = monthKey;
-						currentMonthTotal = 0f;
-						firstSessionIdOfMonth = sessionId;
-					}
-					currentMonthTotal += getWorkHours(context, startTime,
-							endTime);
-
-					if (!currentWeekKey.equals(weekKey)) {
-						// beginning of a new week
-						if (currentWeekKey.length() > 0) {
-							weekTotals.put(firstSessionIdOfWeek,
-									currentWeekTotal);
-						}
-						currentWeekKey = weekKey;
-						currentWeekTotal = 0f;
-						firstSessionIdOfWeek = sessionId;
-					}
-					currentWeekTotal += getWorkHours(context, startTime,
-							endTime);
-				}
-				if (currentMonthKey.length() > 0) {
-					monthTotals.put(firstSessionIdOfMonth,
-							currentMonthTotal);
-				}
-				if (currentWeekKey.length() > 0) {
-					weekTotals.put(firstSessionIdOfWeek, currentWeekTotal);
-				}
-			}
-		} finally {
-			cursor.close();
-		}
+		listTotals.clear();
 	}
 
 	/**
@@ -339,7 +201,8 @@ public class Sessions extends ListActivity implements OnClickListener {
 	 */
 	private String getProjectName() {
 		Cursor cursor = getContentResolver().query(CONTENT_URI_PROJECT,
-				new String[] { "name" }, "_id=" + currentProjectId, null, null);
+				new String[] { "name" }, "_id=?",
+				new String[] { Long.toString(currentProjectId) }, null);
 		try {
 			if (cursor.moveToNext()) {
 				return cursor.getString(0);
@@ -431,20 +294,14 @@ public class Sessions extends ListActivity implements OnClickListener {
 		getContentResolver().delete(CONTENT_URI_SESSION, "_id=?",
 				new String[] { "" + id });
 		adjustButtonEnablement();
-		clearTotals();
 	}
 
 	public class SessionListViewBinder implements
 			SimpleCursorAdapter.ViewBinder {
-		Calendar cal = Calendar.getInstance();
+		private final java.text.DateFormat timeFormat = DateFormat
+				.getTimeFormat(Sessions.this);
 		
 		public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
-			if (columnIndex == 5 || columnIndex == 6 || columnIndex == 7 || columnIndex == 8) {
-				long start = cursor.getLong(0);
-				calculateWeekTotals(start);
-				calculateMonthTotals(start);
-			}
-			
 			if (columnIndex == 0 || columnIndex == 1) {
 				// start or end
 				TextView timeView = (TextView) view;
@@ -461,8 +318,7 @@ public class Sessions extends ListActivity implements OnClickListener {
 							// same date - display only time
 							timeView.setVisibility(View.VISIBLE);
 							timeView.setMaxHeight(100);
-							timeView.setText(DateFormat.getTimeFormat(
-									Sessions.this).format(time));
+							timeView.setText(timeFormat.format(time));
 						} else {
 							// different dates - hide field as date-time will be displayed below
 							timeView.setVisibility(View.INVISIBLE);
@@ -470,16 +326,7 @@ public class Sessions extends ListActivity implements OnClickListener {
 						}
 					} else {
 						// start
-						Calendar cal = Calendar.getInstance();
-						cal.setTimeInMillis(time);
-						
-						timeView.setText(
-								dateFormatSymbols.getShortWeekdays()[cal.get(Calendar.DAY_OF_WEEK)]
-								+ " "
-								+ cal.get(Calendar.DATE)
-								+ " "
-								+ DateFormat.getTimeFormat(Sessions.this)
-										.format(time));
+						timeView.setText(formatDayTime(time));
 					}
 				}
 				return true;
@@ -497,12 +344,7 @@ public class Sessions extends ListActivity implements OnClickListener {
 					} else {
 						timeView.setVisibility(View.VISIBLE);
 						timeView.setMaxHeight(100);
-						timeView.setText(
-								dateFormatSymbols.getShortWeekdays()[cal.get(Calendar.DAY_OF_WEEK)]
- 								+ " "
- 								+ cal.get(Calendar.DATE)
-								+ " "
-								+ DateFormat.getTimeFormat(Sessions.this).format(time));
+						timeView.setText(formatDayTime(time));
 					}
 				}
 				return true;
@@ -527,21 +369,18 @@ public class Sessions extends ListActivity implements OnClickListener {
 				if (cursor.isNull(1)) {
 					endTime = System.currentTimeMillis();
 				}
-				float workHours = getWorkHours(Sessions.this, startTime, endTime);
-				hoursView.setText(hoursFormat.format(workHours) + getString(R.string.h));
+				long workMillis = getWorkMillis(Sessions.this, startTime, endTime);
+				hoursView.setText(formatHours(workMillis) + getString(R.string.h));
 				return true;
 			} else if (columnIndex == 5) {
 				// month total label
 				TextView monthTotalLabelView = (TextView) view;
-				long id = cursor.getLong(4);
 				long start = cursor.getLong(0);
-				if (monthTotals.containsKey(id)) {
-					Calendar cal = Calendar.getInstance();
-					cal.setTimeInMillis(start);
+				if (isTotalShown(cursor, Periods.MONTH)) {
 					monthTotalLabelView
-							.setText(dateFormatSymbols.getMonths()[cal
-									.get(Calendar.MONTH)]
-									+ " " + cal.get(Calendar.YEAR));
+							.setText(dateFormatSymbols.getMonths()[Periods
+									.getMonth(start)]
+									+ " " + Periods.getYear(start));
 					monthTotalLabelView.setMaxHeight(1000);
 				} else {
 					monthTotalLabelView.setMaxHeight(0);
@@ -550,10 +389,8 @@ public class Sessions extends ListActivity implements OnClickListener {
 			} else if (columnIndex == 6) {
 				// month total hours
 				TextView monthTotalView = (TextView) view;
-				long id = cursor.getLong(4);
-				Float total = monthTotals.get(id);
-				if (total != null) {
-					monthTotalView.setText(hoursFormat.format(total) + getString(R.string.h));
+				if (isTotalShown(cursor, Periods.MONTH)) {
+					monthTotalView.setText(getTotalText(cursor, Periods.MONTH));
 					monthTotalView.setMaxHeight(1000);
 				} else {
 					monthTotalView.setMaxHeight(0);
@@ -562,14 +399,11 @@ public class Sessions extends ListActivity implements OnClickListener {
 			} else if (columnIndex == 7) {
 				// week total label
 				TextView weekTotalLabelView = (TextView) view;
-				long id = cursor.getLong(4);
 				long start = cursor.getLong(0);
-				if (weekTotals.containsKey(id)) {
-					Calendar cal = Calendar.getInstance();
-					cal.setTimeInMillis(start);
+				if (isTotalShown(cursor, Periods.WEEK)) {
 					weekTotalLabelView.setText(getString(R.string.report_date_line_week) 
 							+ " " 
-							+ cal.get(Calendar.WEEK_OF_YEAR));
+							+ Periods.getWeekNumber(start));
 					weekTotalLabelView.setMaxHeight(1000);
 				} else {
 					weekTotalLabelView.setMaxHeight(0);
@@ -578,10 +412,8 @@ public class Sessions extends ListActivity implements OnClickListener {
 			} else if (columnIndex == 8) {
 				// week total hours
 				TextView weekTotalView = (TextView) view;
-				long id = cursor.getLong(4);
-				Float total = weekTotals.get(id);
-				if (total != null) {
-					weekTotalView.setText(hoursFormat.format(total) + getString(R.string.h));
+				if (isTotalShown(cursor, Periods.WEEK)) {
+					weekTotalView.setText(getTotalText(cursor, Periods.WEEK));
 					weekTotalView.setMaxHeight(1000);
 				} else {
 					weekTotalView.setMaxHeight(0);
@@ -592,16 +424,84 @@ public class Sessions extends ListActivity implements OnClickListener {
 			return true;
 		}
 
+		/**
+		 * Returns true if the row of cursor is to show the total of its
+		 * period of kind: it ends the period, or it may and the total is not
+		 * read yet.
+		 */
+		private boolean isTotalShown(Cursor cursor, int kind) {
+			if (listTotals.hasTotal(kind, cursor.getLong(4))) {
+				return true;
+			}
+			long start = cursor.getLong(0);
+			if (listTotals.isLoaded(kind, start) || !isLastOfPeriod(cursor, kind)) {
+				return false;
+			}
+			listTotals.request(start, start);
+			return true;
+		}
+
+		/**
+		 * Returns the total hours of the period of kind that the row of
+		 * cursor ends, or a placeholder if it is not read yet.
+		 */
+		private String getTotalText(Cursor cursor, int kind) {
+			long id = cursor.getLong(4);
+			if (listTotals.hasTotal(kind, id)) {
+				return formatHours(Settings.getWorkRules(Sessions.this)
+						.getTotalMillis(kind, listTotals.getTotal(kind, id)))
+						+ getString(R.string.h);
+			}
+			return getString(R.string.total_placeholder);
+		}
+
+		/**
+		 * Returns true if the row of cursor is the last ended session of its
+		 * period of kind, as far as the rows before it tell. The rows are in
+		 * descending start order.
+		 */
+		private boolean isLastOfPeriod(Cursor cursor, int kind) {
+			if (cursor.isNull(1)) {
+				return false;
+			}
+			int position = cursor.getPosition();
+			long periodStart = Periods.getStart(kind, cursor.getLong(0));
+			boolean last = true;
+			while (cursor.moveToPrevious()
+					&& Periods.getStart(kind, cursor.getLong(0)) == periodStart) {
+				if (!cursor.isNull(1)) {
+					last = false;
+					break;
+				}
+			}
+			cursor.moveToPosition(position);
+			return last;
+		}
+
 		private boolean isFromToSameDate(Cursor cursor) {
-			cal.setTimeInMillis(cursor.getLong(0));
-			int year = cal.get(Calendar.YEAR);
-			int month = cal.get(Calendar.MONTH);
-			int day = cal.get(Calendar.DAY_OF_MONTH);
-			cal.setTimeInMillis(cursor.getLong(1));
-			boolean sameDate = year == cal.get(Calendar.YEAR)
-					&& month == cal.get(Calendar.MONTH)
-					&& day == cal.get(Calendar.DAY_OF_MONTH);
-			return sameDate;
+			return Periods.getStart(Periods.DAY, cursor.getLong(0)) == Periods
+					.getStart(Periods.DAY, cursor.getLong(1));
+		}
+
+		/**
+		 * Returns the short week day, day of month and time of day of time.
+		 */
+		private String formatDayTime(long time) {
+			int dayOfWeek;
+			int dayOfMonth;
+			PeriodTable table = Periods.getTable();
+			if (table.covers(time)) {
+				int dayKey = table.getDayKey(time);
+				dayOfWeek = table.getDayOfWeek(dayKey);
+				dayOfMonth = table.getDayOfMonth(dayKey);
+			} else {
+				Calendar cal = Calendar.getInstance();
+				cal.setTimeInMillis(time);
+				dayOfWeek = cal.get(Calendar.DAY_OF_WEEK);
+				dayOfMonth = cal.get(Calendar.DATE);
+			}
+			return dateFormatSymbols.getShortWeekdays()[dayOfWeek] + " "
+					+ dayOfMonth + " " + timeFormat.format(time);
 		}
 	}
 
@@ -614,40 +514,120 @@ public class Sessions extends ListActivity implements OnClickListener {
 		setListAdapter(adapter);
 	}
 
-	private Cursor getSessions(long projectId) {
-		return managedQuery(CONTENT_URI_SESSION, FROM, "project_id=?",
-				new String[] { "" + projectId }, "start desc");
+	/**
+	 * Reads the newest sessions of the project as the only page.
+	 * 
+	 * @param count max number of sessions to read
+	 * @return a cursor over the page
+	 */
+	private Cursor loadSessions(int count) {
+		closeSessionPages();
+		loadedSessionCount = 0;
+		addSessionPage(MyTimeContentProvider.getProjectSessionsUri(
+				currentProjectId).buildUpon(), count);
+		return new SessionPagesCursor(sessionPages);
 	}
 
-	public static float getWorkHours(Context context, long startTime, long endTime) {
-		float precision = Settings.getPrecision(context);
-		long lunchMsExclusion = 0;
-		if (Settings.isExcludeLunchTime(context)) {
-			long lunchStart = Settings.getLunchStart(context);
-			long lunchEnd = Settings.getLunchEnd(context);
-
-			Calendar cal = Calendar.getInstance();
-			cal.setTimeInMillis(startTime);
-			cal.set(Calendar.HOUR_OF_DAY, 0);
-			cal.set(Calendar.MINUTE, 0);
-			cal.set(Calendar.SECOND, 0);
-			cal.set(Calendar.MILLISECOND, 0);
-			long dayStart = cal.getTimeInMillis();
-			while (true) {
-				long start = Math.max(startTime, dayStart + lunchStart);
-				long end = Math.min(endTime, dayStart + lunchEnd);
-				long overlap = Math.max(0, end - start);
-				if (overlap == 0) {
-					break;
-				}
-				lunchMsExclusion += overlap;
-				dayStart += 24 * 3600 * 1000; // to next day start
-			}
+	/**
+	 * Reads the next page of sessions, those before the last session read in
+	 * start and id order, and shows it at the end of the list. Sessions with
+	 * the same start as the last one are not skipped.
+	 */
+	private void loadNextSessions() {
+		Cursor lastPage = sessionPages.get(sessionPages.size() - 1);
+		lastPage.moveToLast();
+		long lastStart = lastPage.getLong(0);
+		long lastId = lastPage.getLong(4);
+		addSessionPage(MyTimeContentProvider.getProjectSessionsUri(
+				currentProjectId).buildUpon().appendQueryParameter(
+				MyTimeContentProvider.PARAM_BEFORE, Long.toString(lastStart))
+				.appendQueryParameter(MyTimeContentProvider.PARAM_BEFORE_ID,
+						Long.toString(lastId)), PAGE_SIZE);
+		((SimpleCursorAdapter) getListAdapter()).changeCursor(new SessionPagesCursor(
+				sessionPages));
+	}
+
+	private void addSessionPage(Uri.Builder uriBuilder, int count) {
+		Cursor page = getContentResolver().query(
+				uriBuilder.appendQueryParameter(MyTimeContentProvider.PARAM_LIMIT,
+						Integer.toString(count)).build(), FROM, null, null,
+				"start desc, _id desc");
+		sessionPages.add(page);
+		loadedSessionCount += page.getCount();
+		moreSessions = page.getCount() == count;
+		if (page.moveToLast()) {
+			// read the totals of the page before its rows are shown
+			long from = page.getLong(0);
+			page.moveToFirst();
+			listTotals.request(from, page.getLong(0));
+			page.moveToPosition(-1);
+		}
+	}
+
+	private void closeSessionPages() {
+		for (Cursor page : sessionPages) {
+			page.close();
+		}
+		sessionPages.clear();
+	}
+
+	/**
+	 * The session pages shown in the list, one after the other. The pages
+	 * are kept when the list changes to a cursor with one more page, and are
+	 * read again by sessionsObserver when the sessions change, rather than
+	 * requeried each by itself.
+	 */
+	private static class SessionPagesCursor extends MergeCursor {
+		public SessionPagesCursor(List<Cursor> pages) {
+			super(pages.toArray(new Cursor[pages.size()]));
+		}
+
+		@Override
+		public void registerContentObserver(ContentObserver observer) {
+			// sessionsObserver reads the pages again
+		}
+
+		@Override
+		public void unregisterContentObserver(ContentObserver observer) {
+		}
+
+		@Override
+		public boolean requery() {
+			return !isClosed();
+		}
+
+		@Override
+		public void deactivate() {
+			// the pages are kept until closed by closeSessionPages
 		}
-		long msTime = endTime - startTime - lunchMsExclusion;
-		int roundedTime = (int) ((float) msTime / precision / 3600000f + 0.5f);
-		float workHours = roundedTime * precision;
-		return workHours;
+
+		@Override
+		public void close() {
+			// the pages are closed by closeSessionPages
+		}
+	}
+
+	/**
+	 * Returns work time as hours for display. Totals are kept in
+	 * milliseconds and made hours only here, so that they do not drift.
+	 */
+	private static String formatHours(long workMillis) {
+		return hoursFormat.format(workMillis / 3600000d);
+	}
+
+	public static float getWorkHours(Context context, long startTime, long endTime) {
+		return getWorkMillis(context, startTime, endTime) / 3600000f;
+	}
+
+	/**
+	 * Returns the work time of a session, with lunch excluded if the user
+	 * wants that, rounded to the precision setting.
+	 * 
+	 * @return rounded work time in milliseconds
+	 * @see WorkRules#getWorkMillis(long, long)
+	 */
+	public static long getWorkMillis(Context context, long startTime, long endTime) {
+		return Settings.getWorkRules(context).getWorkMillis(startTime, endTime);
 	}
 
 	private View startButton;
@@ -666,8 +646,6 @@ public class Sessions extends ListActivity implements OnClickListener {
 				if (stopSession(this, currentProjectId)) {
 					startButton.setEnabled(true);
 					stopButton.setEnabled(false);
-
-					clearTotals();
 				}
 				break;
 			}
@@ -698,6 +676,95 @@ public class Sessions extends ListActivity implements OnClickListener {
 		}
 	}
 
+	/**
+	 * Returns the intervals of all sessions, archived too, of all projects.
+	 * After a change of sessions the sums of INTERVAL_SUMS are read when
+	 * first used, and the intervals are read again only if the sums differ
+	 * from those of the intervals kept, so call from a background thread.
+	 * Changes of comments or of archiving leave the intervals as they are.
+	 */
+	public static SessionIntervalIndex getIntervalIndex(Context context) {
+		SessionIntervalIndex index = intervalIndex;
+		if (index != null && intervalIndexCheckedAt == intervalIndexChanges) {
+			return index;
+		}
+		ContentResolver contentResolver = context.getApplicationContext()
+				.getContentResolver();
+		synchronized (Sessions.class) {
+			if (intervalIndexObserver == null) {
+				intervalIndexObserver = new ContentObserver(null) {
+					@Override
+					public void onChange(boolean selfChange) {
+						intervalIndexChanges++;
+					}
+				};
+				contentResolver.registerContentObserver(CONTENT_URI_SESSION,
+						true, intervalIndexObserver);
+			}
+			int changes = intervalIndexChanges;
+			index = intervalIndex;
+			if (index != null && intervalIndexCheckedAt == changes) {
+				// checked by another thread meanwhile
+				return index;
+			}
+			// the sums are read before the intervals, so that a change in
+			// between makes them differ at the next check
+			long[] sums = readIntervalSums(contentResolver);
+			if (index == null || !Arrays.equals(sums, intervalIndexSums)) {
+				index = readIntervalIndex(contentResolver);
+				intervalIndex = index;
+				intervalIndexSums = sums;
+			}
+			intervalIndexCheckedAt = changes;
+			return index;
+		}
+	}
+
+	/**
+	 * Reads the sums of INTERVAL_SUMS of all sessions.
+	 */
+	private static long[] readIntervalSums(ContentResolver contentResolver) {
+		Cursor cursor = contentResolver.query(CONTENT_URI_SESSION,
+				INTERVAL_SUMS, null, null, null);
+		try {
+			long[] sums = new long[INTERVAL_SUMS.length];
+			if (cursor.moveToNext()) {
+				for (int i = 0; i < sums.length; i++) {
+					sums[i] = cursor.getLong(i);
+				}
+			}
+			return sums;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Reads the intervals of all sessions.
+	 */
+	public static SessionIntervalIndex readIntervalIndex(
+			ContentResolver contentResolver) {
+		Cursor cursor = contentResolver.query(CONTENT_URI_SESSION,
+				new String[] { "_id", "project_id", "start", "end" }, null,
+				null, "start");
+		try {
+			int count = cursor.getCount();
+			long[] ids = new long[count];
+			long[] projectIds = new long[count];
+			long[] starts = new long[count];
+			long[] ends = new long[count];
+			for (int i = 0; cursor.moveToNext(); i++) {
+				ids[i] = cursor.getLong(0);
+				projectIds[i] = cursor.getLong(1);
+				starts[i] = cursor.getLong(2);
+				ends[i] = cursor.isNull(3) ? Long.MAX_VALUE : cursor.getLong(3);
+			}
+			return new SessionIntervalIndex(ids, projectIds, starts, ends);
+		} finally {
+			cursor.close();
+		}
+	}
+
 	/**
 	 *  end session in progress for this project, if any
 	 * @return
@@ -748,9 +815,34 @@ public class Sessions extends ListActivity implements OnClickListener {
 	private BroadcastReceiver dbUpdateReceiver = new BroadcastReceiver() {
 	    @Override
 	    public void onReceive(Context context, Intent intent) {
+			// totals are kept by sessionChangeReceiver
 			adjustButtonEnablement();
-			clearTotals();
 	    }
 	};
 
+	/**
+	 * Adjusts the totals by the change of a session of this project, or
+	 * reads them again if more sessions changed.
+	 */
+	private BroadcastReceiver sessionChangeReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if (intent.hasExtra(Constants.INTENT_EXTRA_PROJECT_ID)
+					&& intent.getLongExtra(Constants.INTENT_EXTRA_PROJECT_ID, 0) != currentProjectId) {
+				return;
+			}
+			if (!intent.hasExtra(Constants.INTENT_EXTRA_SESSION_ID)) {
+				clearTotals();
+				return;
+			}
+			listTotals.update(intent.getLongExtra(Constants.INTENT_EXTRA_SESSION_ID, 0),
+					intent.hasExtra(Constants.INTENT_EXTRA_OLD_START),
+					intent.getLongExtra(Constants.INTENT_EXTRA_OLD_START, 0),
+					intent.getLongExtra(Constants.INTENT_EXTRA_OLD_END, 0),
+					intent.hasExtra(Constants.INTENT_EXTRA_NEW_START),
+					intent.getLongExtra(Constants.INTENT_EXTRA_NEW_START, 0),
+					intent.getLongExtra(Constants.INTENT_EXTRA_NEW_END, 0));
+		}
+	};
+
 }
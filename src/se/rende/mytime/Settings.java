@@ -19,6 +19,7 @@ package se.rende.mytime;
 import java.text.NumberFormat;
 
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
@@ -33,11 +34,27 @@ import android.preference.PreferenceManager;
  */
 public class Settings extends PreferenceActivity {
 	public static final NumberFormat format2digits = NumberFormat.getInstance();
+	/** preference that is true while the stored totals are to be rebuilt */
+	private static final String TOTALS_STALE_KEY = "totals_stale";
+	/** the rules of the current settings, null until first used */
+	private static volatile WorkRules workRules;
+	/**
+	 * Replaces the work rules when a setting of them changes. Kept here, as
+	 * the preferences may only hold a weak reference to it.
+	 */
+	private static OnSharedPreferenceChangeListener workRulesListener;
 
 	OnSharedPreferenceChangeListener prefsChangeListener = new OnSharedPreferenceChangeListener() {
 		public void onSharedPreferenceChanged(
 				SharedPreferences sharedPreferences, String key) {
 			updatePrefSummaries();
+			if (isWorkTimeKey(key)) {
+				// before the totals are calculated by them
+				workRules = readWorkRules(Settings.this);
+				rebuildTotals(Settings.this);
+			} else if (key.equals(getString(R.string.pref_archive_months_key))) {
+				archiveSessions(Settings.this);
+			}
 		}
 	};
 
@@ -45,6 +62,10 @@ public class Settings extends PreferenceActivity {
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		addPreferencesFromResource(R.xml.settings);
+		if (!MyTimeData.isWriteAheadLogSupported()) {
+			getPreferenceScreen().removePreference(
+					findPreference(getString(R.string.pref_write_ahead_log_key)));
+		}
 
 		format2digits.setMinimumIntegerDigits(2);
 		updatePrefSummaries();
@@ -78,6 +99,128 @@ public class Settings extends PreferenceActivity {
 				.unregisterOnSharedPreferenceChangeListener(prefsChangeListener);
 	}
 
+	/**
+	 * True if the setting affects the work time calculated for a session.
+	 */
+	private boolean isWorkTimeKey(String key) {
+		return isWorkTimeKey(this, key);
+	}
+
+	private static boolean isWorkTimeKey(Context context, String key) {
+		return key.equals(context.getString(R.string.pref_precision_key))
+				|| key.equals(context.getString(R.string.pref_rounding_level_key))
+				|| key.equals(context.getString(R.string.pref_round_up_key))
+				|| key.equals(context.getString(R.string.pref_exclude_lunch_time_key))
+				|| key.equals(context.getString(R.string.pref_lunch_start_key))
+				|| key.equals(context.getString(R.string.pref_lunch_end_key))
+				|| key.equals(context.getString(R.string.pref_lunch_weekdays_only_key));
+	}
+
+	/**
+	 * Returns the rules of the current precision, rounding and lunch
+	 * settings. The settings are read once, and again when one of them
+	 * changes.
+	 * 
+	 * @param context
+	 *            normally the calling Activity
+	 * @return the rules to calculate work time by
+	 */
+	public static WorkRules getWorkRules(Context context) {
+		WorkRules rules = workRules;
+		if (rules == null) {
+			final Context appContext = context.getApplicationContext();
+			synchronized (Settings.class) {
+				if (workRulesListener == null) {
+					workRulesListener = new OnSharedPreferenceChangeListener() {
+						public void onSharedPreferenceChanged(
+								SharedPreferences sharedPreferences, String key) {
+							if (isWorkTimeKey(appContext, key)) {
+								workRules = readWorkRules(appContext);
+							}
+						}
+					};
+					PreferenceManager.getDefaultSharedPreferences(appContext)
+							.registerOnSharedPreferenceChangeListener(
+									workRulesListener);
+				}
+				rules = workRules;
+				if (rules == null) {
+					rules = readWorkRules(appContext);
+					workRules = rules;
+				}
+			}
+		}
+		return rules;
+	}
+
+	private static WorkRules readWorkRules(Context context) {
+		return new WorkRules(getRounding(context), getBreakRules(context));
+	}
+
+	/**
+	 * Returns the rounding of the precision and rounding settings.
+	 */
+	private static Rounding getRounding(Context context) {
+		return new Rounding(Math.round(getPrecision(context) * 3600000d),
+				Rounding.getLevel(getRoundingLevel(context)),
+				isRoundUp(context));
+	}
+
+	/**
+	 * Returns the breaks of the lunch settings.
+	 */
+	private static BreakRules getBreakRules(Context context) {
+		if (!isExcludeLunchTime(context)) {
+			return BreakRules.NONE;
+		}
+		long lunchStart = getLunchStart(context);
+		long lunchEnd = getLunchEnd(context);
+		if (isLunchWeekdaysOnly(context)) {
+			return BreakRules.weekdays(lunchStart, lunchEnd);
+		}
+		return BreakRules.everyDay(lunchStart, lunchEnd);
+	}
+
+	/**
+	 * Recalculates the stored session totals in the background, to make them
+	 * use the changed settings, or the periods of a changed time zone. The
+	 * totals are marked stale until recalculated, so that they are
+	 * recalculated on next start if the process is killed first.
+	 */
+	public static void rebuildTotals(Context context) {
+		setTotalsStale(context, true);
+		context.startService(new Intent(context, MaintenanceService.class)
+				.setAction(MaintenanceService.ACTION_REBUILD_TOTALS));
+	}
+
+	/**
+	 * Recalculates the stored session totals in the background, if they were
+	 * not recalculated after a change of settings or time zone.
+	 */
+	public static void rebuildStaleTotals(Context context) {
+		if (PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
+				TOTALS_STALE_KEY, false)) {
+			rebuildTotals(context);
+		}
+	}
+
+	/**
+	 * Marks the stored totals as to be rebuilt, or as rebuilt.
+	 */
+	static void setTotalsStale(Context context, boolean stale) {
+		PreferenceManager.getDefaultSharedPreferences(context).edit()
+				.putBoolean(TOTALS_STALE_KEY, stale).commit();
+	}
+
+	/**
+	 * Moves the sessions older than the archive setting to the archive, in
+	 * the background.
+	 */
+	public static void archiveSessions(Context context) {
+		context.startService(new Intent(context, MaintenanceService.class)
+				.setAction(MaintenanceService.ACTION_ARCHIVE));
+	}
+
 	private void updatePrefSummaries() {
 		SharedPreferences sharedPrefs = PreferenceManager
 				.getDefaultSharedPreferences(this);
@@ -87,6 +230,8 @@ public class Settings extends PreferenceActivity {
 				R.string.lunch_start_summary, "11:30");
 		setTimePrefSummaryToValue(sharedPrefs, R.string.pref_lunch_end_key,
 				R.string.lunch_end_summary, "12:30");
+		setStringPrefSummaryToValue(sharedPrefs, R.string.pref_archive_months_key,
+				R.string.archive_months_summary);
 	}
 
 	/**
@@ -158,6 +303,65 @@ public class Settings extends PreferenceActivity {
 				.getBoolean("exclude_lunch_time", false);
 	}
 
+	/**
+	 * True when user wants lunch to be excluded Monday to Friday only.
+	 * 
+	 * @return true when there is no lunch on weekends
+	 */
+	public static boolean isLunchWeekdaysOnly(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context)
+				.getBoolean("lunch_weekdays_only", false);
+	}
+
+	/**
+	 * What the precision rounds: each session, each day or each total.
+	 * 
+	 * @return one of Rounding.LEVEL_NAMES
+	 */
+	public static String getRoundingLevel(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context)
+				.getString("rounding_level",
+						Rounding.LEVEL_NAMES[Rounding.SESSION]);
+	}
+
+	/**
+	 * True when user wants work time rounded up to the precision, instead of
+	 * to the nearest.
+	 * 
+	 * @return true to round up
+	 */
+	public static boolean isRoundUp(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context)
+				.getBoolean("round_up", false);
+	}
+
+	/**
+	 * True when user wants the database to use a write-ahead log, to let
+	 * sessions be read while they are written.
+	 * 
+	 * @return true when write-ahead log is to be used
+	 */
+	public static boolean isWriteAheadLog(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context)
+				.getBoolean("write_ahead_log", false);
+	}
+
+	/**
+	 * The number of months back from the current month that sessions are
+	 * kept in the session table, older sessions are archived.
+	 * 
+	 * @return months, or 0 if sessions are not archived
+	 */
+	public static int getArchiveMonths(Context context) {
+		String monthsString = PreferenceManager.getDefaultSharedPreferences(
+				context).getString("archive_months", "0");
+		try {
+			return Integer.parseInt(monthsString.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
 	/**
 	 * The milliseconds from midnight to start of lunch.
 	 * 
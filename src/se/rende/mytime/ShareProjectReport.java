@@ -16,7 +16,6 @@
 package se.rende.mytime;
 
 import static se.rende.mytime.Constants.CONTENT_URI_PROJECT;
-import static se.rende.mytime.Constants.CONTENT_URI_SESSION;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -26,14 +25,13 @@ import java.io.PrintWriter;
 import java.text.DateFormatSymbols;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.List;
-import java.util.TreeMap;
 
 import com.google.android.apps.analytics.GoogleAnalyticsTracker;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
@@ -56,8 +54,6 @@ public class ShareProjectReport extends Activity implements OnClickListener {
 	private DateFormatSymbols dateFormatSymbols = new DateFormatSymbols();
 	private long currentProjectId;
 	private String projectName;
-	private TreeMap<Long, Float> weekTotals = new TreeMap<Long, Float>();
-	private TreeMap<Long, Float> monthTotals = new TreeMap<Long, Float>();
 	private CheckBox includeWeekTotals;
 	private CheckBox includeMonthTotals;
 	private CheckBox groupByDay;
@@ -76,7 +72,6 @@ public class ShareProjectReport extends Activity implements OnClickListener {
 		currentProjectId = Long.parseLong(intentData.getLastPathSegment());
 		projectName = getProjectName();
 		setContentView(R.layout.share_project_report);
-		Sessions.calculateTotals(this, currentProjectId, monthTotals, weekTotals);
 		
 		sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
 		
@@ -116,34 +111,16 @@ public class ShareProjectReport extends Activity implements OnClickListener {
 		}
 		
 		public static PeriodInfo getWeekInfo(String labelPrefix, long start, int weeksOffset) {
-			Calendar cal = Calendar.getInstance();
-			cal.setTimeInMillis(start);
-			cal.set(Calendar.DAY_OF_WEEK, cal.getFirstDayOfWeek());
-			cal.set(Calendar.HOUR_OF_DAY, 0);
-			cal.set(Calendar.MINUTE, 0);
-			cal.set(Calendar.SECOND, 0);
-			cal.set(Calendar.MILLISECOND, 0);
-			cal.add(Calendar.WEEK_OF_YEAR, weeksOffset);
-			long from = cal.getTimeInMillis();
-			int weekNo = cal.get(Calendar.WEEK_OF_YEAR);
-			cal.add(Calendar.WEEK_OF_YEAR, 1);
-			long upTo = cal.getTimeInMillis();
+			long from = Periods.move(Periods.WEEK, start, weeksOffset);
+			long upTo = Periods.getEnd(Periods.WEEK, from);
+			int weekNo = Periods.getWeekNumber(from);
 			return new PeriodInfo(labelPrefix + " (" + weekNo + ")", from, upTo);
 		}
 
 		public static PeriodInfo getMonthInfo(String labelPrefix, long start, int monthsOffset, DateFormatSymbols dateFormatSymbols) {
-			Calendar cal = Calendar.getInstance();
-			cal.setTimeInMillis(start);
-			cal.set(Calendar.DAY_OF_MONTH, 1);
-			cal.set(Calendar.HOUR_OF_DAY, 0);
-			cal.set(Calendar.MINUTE, 0);
-			cal.set(Calendar.SECOND, 0);
-			cal.set(Calendar.MILLISECOND, 0);
-			cal.add(Calendar.MONTH, monthsOffset);
-			long from = cal.getTimeInMillis();
-			int monthNo = cal.get(Calendar.MONTH);
-			cal.add(Calendar.MONTH, 1);
-			long upTo = cal.getTimeInMillis();
+			long from = Periods.move(Periods.MONTH, start, monthsOffset);
+			long upTo = Periods.getEnd(Periods.MONTH, from);
+			int monthNo = Periods.getMonth(from);
 			return new PeriodInfo(labelPrefix + " (" + dateFormatSymbols.getMonths()[monthNo] + ")", from, upTo);
 		}
 	}
@@ -176,7 +153,8 @@ public class ShareProjectReport extends Activity implements OnClickListener {
 	 */
 	private String getProjectName() {
 		Cursor cursor = getContentResolver().query(CONTENT_URI_PROJECT,
-				new String[] { "name" }, "_id=" + currentProjectId, null, null);
+				new String[] { "name" }, "_id=?",
+				new String[] { Long.toString(currentProjectId) }, null);
 		try {
 			if (cursor.moveToNext()) {
 				return cursor.getString(0);
@@ -256,82 +234,56 @@ public class ShareProjectReport extends Activity implements OnClickListener {
 //		pw.println("PeriodInfo(" + periodInfo.label + ", " + 
 //				DateFormat.getDateFormat(this).format(periodInfo.from) + " " + DateFormat.getTimeFormat(this).format(periodInfo.from) + ", " + 
 //				DateFormat.getDateFormat(this).format(periodInfo.upTo) + " " + DateFormat.getTimeFormat(this).format(periodInfo.upTo) + ")");
+		TimeReportWriter reportWriter = new TimeReportWriter(pw, Settings
+				.getWorkRules(this), periodInfo.from, periodInfo.upTo);
+		reportWriter.setGroupByDay(groupByDay.isChecked());
+		reportWriter.setIncludeWeekTotals(includeWeekTotals.isChecked());
+		reportWriter.setIncludeMonthTotals(includeMonthTotals.isChecked());
+		reportWriter.setDateFormat(DateFormat.getDateFormat(this));
+		reportWriter.setHoursFormat(hoursFormat);
+		reportWriter.setDateFormatSymbols(dateFormatSymbols);
+		reportWriter.setLabels(getString(R.string.report_date_line_week),
+				getString(R.string.report_date_line_total));
+		addSessions(this, reportWriter, currentProjectId);
+	}
+
+	/**
+	 * Adds the ended sessions of a project to a time report, and finishes
+	 * it. Only the sessions of the period of the report and of the weeks and
+	 * months it is in are read.
+	 * @param reportWriter the report, with its period and totals set
+	 * @return number of sessions added
+	 */
+	public static int addSessions(Context context, TimeReportWriter reportWriter, long projectId) {
 		Cursor sessionCursor = null;
 		try {
-			sessionCursor = getContentResolver().query(CONTENT_URI_SESSION,
+			// ask for the period and the weeks and months it is in only, so
+			// that archived sessions are read only for periods they are in
+			long queryFrom = reportWriter.getQueryFrom();
+			long queryUpTo = reportWriter.getQueryUpTo();
+			Uri.Builder sessionsUri = MyTimeContentProvider.getProjectSessionsUri(projectId).buildUpon();
+			if (queryFrom > 0) {
+				sessionsUri.appendQueryParameter(MyTimeContentProvider.PARAM_FROM, Long.toString(queryFrom));
+			}
+			if (queryUpTo < Long.MAX_VALUE) {
+				sessionsUri.appendQueryParameter(MyTimeContentProvider.PARAM_BEFORE, Long.toString(queryUpTo));
+			}
+			sessionCursor = context.getContentResolver().query(sessionsUri.build(),
 					new String[] { "_id", "start", "end", "comment" }, 
-					"project_id=? and end is not null", new String[] {"" + currentProjectId}, "start asc");
-			String lastDate = null;
-			long lastDateMillis = 0;
-			long lastId = -1;
-			float daySum = 0f;
-			StringBuilder comments = new StringBuilder();
+					"end is not null", null, "start asc");
+			int count = 0;
 			while (sessionCursor.moveToNext()) {
-				long startTime = sessionCursor.getLong(1);
-				if (periodInfo.from <= startTime && startTime < periodInfo.upTo) {
-					long id = sessionCursor.getLong(0);					
-					long endTime = sessionCursor.getLong(2);
-					String comment = sessionCursor.getString(3);
-					
-					String dateString = DateFormat.getDateFormat(this).format(startTime);
-					if (!groupByDay.isChecked()) {
-						printDateLine(pw, comment, dateString, startTime, Sessions.getWorkHours(this, startTime, endTime), id);
-					} else {
-						if (lastDate == null) {
-							lastDate = dateString;
-							lastDateMillis = startTime;
-						} else if (!lastDate.equals(dateString)) {
-							printDateLine(pw, comments.toString(), lastDate, lastDateMillis, daySum, lastId);
-							lastDate = dateString;
-							lastDateMillis = startTime;
-							daySum = 0f;
-							comments.setLength(0);
-						}
-						daySum += Sessions.getWorkHours(this, startTime, endTime);
-						if (comment != null && comment.length() > 0) {
-							if (comments.length() > 0 && comment.length() > 0) {
-								comments.append(", ");
-							}
-							comments.append(comment);
-						}
-						lastId = id;
-					}
-				}
-			}
-			if (lastId != -1) {
-		    	printDateLine(pw, comments.toString(), lastDate, lastDateMillis, daySum, lastId);
+				reportWriter.addSession(sessionCursor.getLong(0), sessionCursor
+						.getLong(1), sessionCursor.getLong(2), sessionCursor
+						.getString(3));
+				count++;
 			}
+			reportWriter.finish();
+			return count;
 		} finally {
 			if (sessionCursor != null) {
 				sessionCursor.close();
 			}
 		}
-		pw.flush();
-	}
-
-	private void printDateLine(PrintWriter pw, String comment, String dateString, long lastDateMillis, float workHours, long lastId) {
-		pw.print(dateString + "\t" + hoursFormat.format(workHours));
-		if (comment != null && comment.length() > 0) {
-			pw.print("\t" + comment);
-		}
-		pw.println();
-		
-		if (includeWeekTotals.isChecked()) {
-			Float weekTotal = weekTotals.get(lastId);
-			if (weekTotal != null) {
-				Calendar cal = Calendar.getInstance();
-				cal.setTimeInMillis(lastDateMillis);
-				pw.println(getString(R.string.report_date_line_week) + " " + cal.get(Calendar.WEEK_OF_YEAR) + " " + getString(R.string.report_date_line_total) + "\t" + hoursFormat.format(weekTotal));
-			}
-		}
-		
-		if (includeMonthTotals.isChecked()) {
-			Float monthTotal = monthTotals.get(lastId);
-			if (monthTotal != null) {
-				Calendar cal = Calendar.getInstance();
-				cal.setTimeInMillis(lastDateMillis);
-				pw.println(dateFormatSymbols.getMonths()[cal.get(Calendar.MONTH)] + " total\t" + hoursFormat.format(monthTotal));
-			}
-		}
 	}
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Keeps the most recently used compiled statements, so that statements run
+ * over and over are compiled once. Bind the parameters of a statement and
+ * execute it within a transaction, as that keeps other threads from using
+ * the same statement meanwhile.
+ *
+ * @author Dag Rende
+ */
+public class StatementCache {
+	private final int maxSize;
+	private SQLiteDatabase db;
+	private final LinkedHashMap<String, SQLiteStatement> statements;
+	private int hits;
+	private int misses;
+
+	/**
+	 * @param maxSize
+	 *            the max number of statements kept compiled
+	 */
+	public StatementCache(final int maxSize) {
+		this.maxSize = maxSize;
+		statements = new LinkedHashMap<String, SQLiteStatement>(maxSize, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, SQLiteStatement> eldest) {
+				if (size() > StatementCache.this.maxSize) {
+					eldest.getValue().close();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the compiled statement for sql, compiling it if not in the
+	 * cache.
+	 *
+	 * @param db
+	 *            the database to compile on, the cache is cleared if it is not
+	 *            the same as last call
+	 * @param sql
+	 *            a statement with ? for each parameter
+	 * @return the statement with the bindings cleared
+	 */
+	public synchronized SQLiteStatement get(SQLiteDatabase db, String sql) {
+		if (db != this.db) {
+			clear();
+			this.db = db;
+		}
+		SQLiteStatement statement = statements.get(sql);
+		if (statement == null) {
+			misses++;
+			statement = db.compileStatement(sql);
+			statements.put(sql, statement);
+		} else {
+			hits++;
+			statement.clearBindings();
+		}
+		return statement;
+	}
+
+	/**
+	 * Closes all statements.
+	 */
+	public synchronized void clear() {
+		for (SQLiteStatement statement : statements.values()) {
+			statement.close();
+		}
+		statements.clear();
+	}
+
+	/**
+	 * @return number of get calls that found the statement in the cache
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of get calls that had to compile the statement
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "StatementCache(size=" + statements.size() + ", hits=" + hits
+				+ ", misses=" + misses + ")";
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.text.DateFormatSymbols;
+import java.text.NumberFormat;
+
+/**
+ * Writes the text of a time report of a period, one line per session or per
+ * day, with week and month totals after the last line of each week and
+ * month. Sessions are given in start order, including those of the weeks
+ * and months that the period only partly covers, so that their totals are
+ * for the whole week and month, and are summed as they are written by a
+ * SessionAggregator.
+ *
+ * Uses no Android classes.
+ *
+ * @author Dag Rende
+ */
+public class TimeReportWriter implements SessionAggregator.Listener {
+	private static final int[] KINDS = { Periods.DAY, Periods.WEEK,
+			Periods.MONTH };
+	private final PrintWriter pw;
+	private final long from;
+	private final long upTo;
+	private final WorkRules workRules;
+	private final SessionAggregator aggregator;
+	private boolean groupByDay;
+	private boolean includeWeekTotals;
+	private boolean includeMonthTotals;
+	private DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.SHORT);
+	private NumberFormat hoursFormat = NumberFormat.getInstance();
+	private DateFormatSymbols dateFormatSymbols = new DateFormatSymbols();
+	private String weekLabel = "Week";
+	private String totalLabel = "total";
+	private String dayDate;
+	private final StringBuilder dayComments = new StringBuilder();
+
+	/**
+	 * @param pw
+	 *            where the report is written
+	 * @param workRules
+	 *            what the work time of a session is calculated by
+	 * @param from
+	 *            start of the period
+	 * @param upTo
+	 *            end of the period
+	 */
+	public TimeReportWriter(PrintWriter pw, WorkRules workRules, long from,
+			long upTo) {
+		this.pw = pw;
+		this.from = from;
+		this.upTo = upTo;
+		this.workRules = workRules;
+		aggregator = new SessionAggregator(workRules, KINDS, this);
+	}
+
+	public void setGroupByDay(boolean groupByDay) {
+		this.groupByDay = groupByDay;
+	}
+
+	public void setIncludeWeekTotals(boolean includeWeekTotals) {
+		this.includeWeekTotals = includeWeekTotals;
+	}
+
+	public void setIncludeMonthTotals(boolean includeMonthTotals) {
+		this.includeMonthTotals = includeMonthTotals;
+	}
+
+	public void setDateFormat(DateFormat dateFormat) {
+		this.dateFormat = dateFormat;
+	}
+
+	public void setHoursFormat(NumberFormat hoursFormat) {
+		this.hoursFormat = hoursFormat;
+	}
+
+	public void setDateFormatSymbols(DateFormatSymbols dateFormatSymbols) {
+		this.dateFormatSymbols = dateFormatSymbols;
+	}
+
+	/**
+	 * @param weekLabel
+	 *            written before the week number of a week total
+	 * @param totalLabel
+	 *            written after the week number of a week total
+	 */
+	public void setLabels(String weekLabel, String totalLabel) {
+		this.weekLabel = weekLabel;
+		this.totalLabel = totalLabel;
+	}
+
+	/**
+	 * Returns the start of the sessions to give, the start of the period or
+	 * of the week or month it starts in if their totals are included.
+	 */
+	public long getQueryFrom() {
+		if (from <= 0) {
+			return from;
+		}
+		long queryFrom = from;
+		if (includeWeekTotals) {
+			queryFrom = Math.min(queryFrom, Periods.getStart(Periods.WEEK, from));
+		}
+		if (includeMonthTotals) {
+			queryFrom = Math.min(queryFrom, Periods.getStart(Periods.MONTH, from));
+		}
+		return queryFrom;
+	}
+
+	/**
+	 * Returns the end of the sessions to give, the end of the period or of
+	 * the week or month it ends in if their totals are included.
+	 */
+	public long getQueryUpTo() {
+		if (upTo == Long.MAX_VALUE) {
+			return upTo;
+		}
+		long queryUpTo = upTo;
+		if (includeWeekTotals) {
+			queryUpTo = Math.max(queryUpTo, Periods.getEnd(Periods.WEEK,
+					Periods.getStart(Periods.WEEK, upTo - 1)));
+		}
+		if (includeMonthTotals) {
+			queryUpTo = Math.max(queryUpTo, Periods.getEnd(Periods.MONTH,
+					Periods.getStart(Periods.MONTH, upTo - 1)));
+		}
+		return queryUpTo;
+	}
+
+	/**
+	 * Adds an ended session, starting at or after the sessions added
+	 * before. It is written if it starts in the period.
+	 */
+	public void addSession(long id, long start, long end, String comment) {
+		long workMillis = aggregator.add(id, start, end);
+		if (!isInPeriod(start)) {
+			return;
+		}
+		if (!groupByDay) {
+			printLine(dateFormat.format(start), workMillis, comment);
+		} else {
+			if (dayDate == null) {
+				dayDate = dateFormat.format(start);
+			}
+			if (comment != null && comment.length() > 0) {
+				if (dayComments.length() > 0) {
+					dayComments.append(", ");
+				}
+				dayComments.append(comment);
+			}
+		}
+	}
+
+	/**
+	 * Writes the lines of the periods not ended yet. Call after the last
+	 * session.
+	 */
+	public void finish() {
+		aggregator.finish();
+		pw.flush();
+	}
+
+	public void periodEnded(int kind, long periodStart, long workMillis,
+			int sessionCount, long lastSessionId, long lastSessionStart) {
+		if (!isInPeriod(lastSessionStart)) {
+			return;
+		}
+		switch (kind) {
+		case Periods.DAY:
+			if (groupByDay) {
+				printLine(dayDate, workRules.getTotalMillis(kind, workMillis),
+						dayComments.toString());
+				dayDate = null;
+				dayComments.setLength(0);
+			}
+			break;
+		case Periods.WEEK:
+			if (includeWeekTotals) {
+				pw.println(weekLabel + " " + Periods.getWeekNumber(periodStart)
+						+ " " + totalLabel + "\t"
+						+ formatHours(workRules.getTotalMillis(kind, workMillis)));
+			}
+			break;
+		case Periods.MONTH:
+			if (includeMonthTotals) {
+				pw.println(dateFormatSymbols.getMonths()[Periods.getMonth(periodStart)]
+						+ " total\t"
+						+ formatHours(workRules.getTotalMillis(kind, workMillis)));
+			}
+			break;
+		}
+	}
+
+	private boolean isInPeriod(long time) {
+		return from <= time && time < upTo;
+	}
+
+	private void printLine(String dateString, long workMillis, String comment) {
+		pw.print(dateString + "\t" + formatHours(workMillis));
+		if (comment != null && comment.length() > 0) {
+			pw.print("\t" + comment);
+		}
+		pw.println();
+	}
+
+	/**
+	 * Returns work time as hours. Totals are kept in milliseconds and made
+	 * hours only here, so that they do not drift.
+	 */
+	private String formatHours(long workMillis) {
+		return hoursFormat.format(workMillis / 3600000d);
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+import java.util.TimeZone;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Makes the periods that sessions are summed in again when the time zone or
+ * the locale, which gives the first day of week, changes, and sums the
+ * stored totals again in the new periods.
+ *
+ * @author Dag Rende
+ */
+public final class TimeZoneReceiver extends BroadcastReceiver {
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		if (Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) {
+			String zoneId = intent.getStringExtra("time-zone");
+			if (zoneId != null) {
+				// the default of this process may not be changed yet
+				TimeZone.setDefault(TimeZone.getTimeZone(zoneId));
+			}
+		}
+		Periods.reset();
+		Settings.rebuildTotals(context);
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime;
+
+/**
+ * The settings that the work time of a session is calculated by, read once.
+ * Get the current rules by {@link Settings#getWorkRules}, a new object is
+ * made when the settings change.
+ *
+ * @author Dag Rende
+ */
+public final class WorkRules {
+	private final Rounding rounding;
+	private final BreakRules breakRules;
+
+	/**
+	 * @param rounding
+	 *            how work time is rounded to the precision
+	 * @param breakRules
+	 *            the breaks that are not work time
+	 */
+	public WorkRules(Rounding rounding, BreakRules breakRules) {
+		this.rounding = rounding;
+		this.breakRules = breakRules;
+	}
+
+	public Rounding getRounding() {
+		return rounding;
+	}
+
+	public BreakRules getBreakRules() {
+		return breakRules;
+	}
+
+	/**
+	 * Returns the work time of a session, with the breaks excluded, rounded
+	 * to the precision setting if each session is rounded.
+	 *
+	 * @return work time in milliseconds
+	 */
+	public long getWorkMillis(long startTime, long endTime) {
+		return rounding.roundSession(endTime - startTime
+				- breakRules.getBreakMillis(startTime, endTime));
+	}
+
+	/**
+	 * Returns a total as kept, rounded as it is to be shown.
+	 *
+	 * @see Rounding#roundTotal(int, long)
+	 */
+	public long getTotalMillis(int kind, long workMillis) {
+		return rounding.roundTotal(kind, workMillis);
+	}
+
+	/**
+	 * Returns the work time of a session in hours.
+	 *
+	 * @see #getWorkMillis(long, long)
+	 */
+	public float getWorkHours(long startTime, long endTime) {
+		return getWorkMillis(startTime, endTime) / 3600000f;
+	}
+
+	@Override
+	public String toString() {
+		return "WorkRules(rounding=" + rounding + ", breakRules="
+				+ breakRules + ")";
+	}
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime.tests;
+
+import static se.rende.mytime.Constants.CONTENT_URI_PROJECT;
+import static se.rende.mytime.Constants.CONTENT_URI_SESSION;
+import static se.rende.mytime.Constants.CONTENT_URI_TOTAL;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import se.rende.mytime.MyTimeContentProvider;
+import se.rende.mytime.Periods;
+import se.rende.mytime.SessionListTotals;
+import se.rende.mytime.Sessions;
+import se.rende.mytime.Settings;
+import se.rende.mytime.ShareProjectReport;
+import se.rende.mytime.TimeReportWriter;
+
+/**
+ * Fills the database with a made up history through the content provider,
+ * and times the queries that the screens run on it, without showing any
+ * screen. It is in the test project, not in the app. Run on a device or
+ * emulator with a fresh install of the app and the test project, such as:
+ *
+ * <pre>
+ * adb shell pm clear se.rende.mytime
+ * adb shell am instrument -w -e sessions 1000000 -e projects 50 \
+ *     se.rende.mytime.tests/.LoadHarness
+ * </pre>
+ *
+ * Arguments, all optional:
+ * <ul>
+ * <li>seed - of the history, 1 by default</li>
+ * <li>sessions - number of sessions to add, 100000 by default, 0 to only
+ * time the queries on the sessions there are</li>
+ * <li>projects - number of projects to add, 20 by default</li>
+ * <li>years - that the sessions are spread over, up to today, 10 by
+ * default</li>
+ * <li>running - number of sessions left running, 1 by default</li>
+ * <li>runs - number of times each query is timed, 20 by default</li>
+ * <li>inserts - number of sessions added one by one and then in one bulk
+ * insert, to compare the two, 10000 by default, 0 to not compare</li>
+ * </ul>
+ *
+ * The time of each query is printed as the minimum, median, 90th percentile
+ * and maximum milliseconds, and logged.
+ *
+ * @author Dag Rende
+ */
+public class LoadHarness extends Instrumentation {
+	private static final String TAG = "LoadHarness";
+	/** sessions added per bulk insert, each in one transaction */
+	private static final int INSERT_CHUNK_SIZE = 1000;
+	private static final int PAGE_SIZE = 50;
+	private static final long YEAR_MILLIS = 365L * 24 * 3600 * 1000;
+	private Bundle arguments;
+	private final StringBuilder report = new StringBuilder();
+
+	/**
+	 * One screen query, run and timed several times.
+	 */
+	private interface Operation {
+		/**
+		 * @return number of rows read, to be reported
+		 */
+		int run();
+	}
+
+	@Override
+	public void onCreate(Bundle arguments) {
+		super.onCreate(arguments);
+		this.arguments = arguments;
+		start();
+	}
+
+	@Override
+	public void onStart() {
+		super.onStart();
+		Bundle results = new Bundle();
+		try {
+			Context context = getTargetContext();
+			long seed = getArgument("seed", 1);
+			int sessionCount = (int) getArgument("sessions", 100000);
+			if (sessionCount > 0) {
+				load(context, seed, sessionCount, (int) getArgument("projects",
+						20), (int) getArgument("years", 10), (int) getArgument(
+						"running", 1));
+			}
+			replay(context, (int) getArgument("runs", 20));
+			int insertCount = (int) getArgument("inserts", 10000);
+			if (insertCount > 0) {
+				compareInserts(context, insertCount);
+			}
+			results.putString(REPORT_KEY_STREAMRESULT, report.toString());
+			finish(Activity.RESULT_OK, results);
+		} catch (RuntimeException e) {
+			Log.e(TAG, "failed", e);
+			results.putString(REPORT_KEY_STREAMRESULT, report + "failed: "
+					+ e + "\n");
+			finish(Activity.RESULT_CANCELED, results);
+		}
+	}
+
+	private long getArgument(String name, long defaultValue) {
+		String value = arguments != null ? arguments.getString(name) : null;
+		return value != null ? Long.parseLong(value) : defaultValue;
+	}
+
+	/**
+	 * Adds the projects and sessions of a made up history, through the
+	 * content provider, so that totals and comments are kept as when
+	 * sessions are added by the user.
+	 */
+	private void load(Context context, long seed, int sessionCount,
+			int projectCount, int years, int runningCount) {
+		final ContentResolver contentResolver = context.getContentResolver();
+		long endTime = Periods.getStart(Periods.DAY, System.currentTimeMillis());
+		SyntheticHistory history = new SyntheticHistory(seed, endTime - years
+				* YEAR_MILLIS, endTime, sessionCount);
+		history.setProjectCount(projectCount);
+		history.setRunningCount(runningCount);
+		final long[] projectIds = new long[history.getProjectCount()];
+		for (int i = 0; i < projectIds.length; i++) {
+			ContentValues values = new ContentValues();
+			values.put("name", history.getProjectName(i));
+			projectIds[i] = ContentUris.parseId(contentResolver.insert(
+					CONTENT_URI_PROJECT, values));
+		}
+		final List<ContentValues> chunk = new ArrayList<ContentValues>(
+				INSERT_CHUNK_SIZE);
+		long before = System.nanoTime();
+		history.generate(new SyntheticHistory.Listener() {
+			public void session(long id, int projectIndex, long start,
+					long end, String comment) {
+				ContentValues values = new ContentValues();
+				values.put("project_id", projectIds[projectIndex]);
+				values.put("start", start);
+				if (end != 0) {
+					values.put("end", end);
+				}
+				values.put("comment", comment);
+				chunk.add(values);
+				if (chunk.size() == INSERT_CHUNK_SIZE) {
+					insert(contentResolver, chunk);
+				}
+			}
+		});
+		insert(contentResolver, chunk);
+		long millis = (System.nanoTime() - before) / 1000000;
+		print("loaded " + sessionCount + " sessions of " + projectIds.length
+				+ " projects in " + millis + " ms, "
+				+ (sessionCount * 1000L / Math.max(1, millis)) + " sessions/s");
+	}
+
+	private static void insert(ContentResolver contentResolver,
+			List<ContentValues> chunk) {
+		if (!chunk.isEmpty()) {
+			contentResolver.bulkInsert(CONTENT_URI_SESSION, chunk
+					.toArray(new ContentValues[chunk.size()]));
+			chunk.clear();
+		}
+	}
+
+	/**
+	 * Adds sessions to a project of their own one insert at a time, each in
+	 * a transaction with a notification of its own, and then the same
+	 * sessions to another project in one bulk insert, and prints the times.
+	 * The sessions and projects are deleted after.
+	 */
+	private void compareInserts(Context context, int count) {
+		ContentResolver contentResolver = context.getContentResolver();
+		long endTime = Periods.getStart(Periods.DAY, System.currentTimeMillis());
+		String[] names = { "one by one", "bulk" };
+		long[] millis = new long[names.length];
+		for (int i = 0; i < names.length; i++) {
+			ContentValues project = new ContentValues();
+			project.put("name", "insert " + names[i]);
+			Uri projectUri = contentResolver.insert(CONTENT_URI_PROJECT,
+					project);
+			ContentValues[] sessions = new ContentValues[count];
+			for (int j = 0; j < count; j++) {
+				long start = endTime - (count - j) * 3600000L;
+				sessions[j] = new ContentValues();
+				sessions[j].put("project_id", ContentUris.parseId(projectUri));
+				sessions[j].put("start", start);
+				sessions[j].put("end", start + 1800000L);
+				sessions[j].put("comment", "insert " + j % 100);
+			}
+			long before = System.nanoTime();
+			if (i == 0) {
+				for (ContentValues session : sessions) {
+					contentResolver.insert(CONTENT_URI_SESSION, session);
+				}
+			} else {
+				contentResolver.bulkInsert(CONTENT_URI_SESSION, sessions);
+			}
+			millis[i] = (System.nanoTime() - before) / 1000000;
+			contentResolver.delete(MyTimeContentProvider
+					.getProjectSessionsUri(ContentUris.parseId(projectUri)),
+					null, null);
+			contentResolver.delete(projectUri, null, null);
+		}
+		for (int i = 0; i < names.length; i++) {
+			print("insert " + names[i] + "\t" + count + " sessions\t"
+					+ millis[i] + " ms\t"
+					+ (count * 1000L / Math.max(1, millis[i])) + " sessions/s");
+		}
+	}
+
+	/**
+	 * Times the queries of the screens, on the project with the most
+	 * sessions.
+	 */
+	private void replay(final Context context, int runs) {
+		final ContentResolver contentResolver = context.getContentResolver();
+		final long projectId = getLargestProjectId(contentResolver);
+		final long now = System.currentTimeMillis();
+		print("project " + projectId + ", " + runs + " runs, "
+				+ Settings.getWorkRules(context));
+		print("operation\trows\tmin ms\tmedian ms\t90% ms\tmax ms");
+		time("projects", runs, new Operation() {
+			public int run() {
+				// MyTime
+				return count(contentResolver.query(CONTENT_URI_PROJECT,
+						new String[] { "_id", "name" }, null, null, "name asc"))
+						+ count(contentResolver.query(CONTENT_URI_SESSION,
+								new String[] { "project_id" }, "end is null",
+								null, null));
+			}
+		});
+		time("sessionsFirstPage", runs, new Operation() {
+			public int run() {
+				// Sessions when opened
+				return readPages(contentResolver, projectId, 1);
+			}
+		});
+		time("sessionsScroll", runs, new Operation() {
+			public int run() {
+				// Sessions scrolled down ten pages
+				return readPages(contentResolver, projectId, 10);
+			}
+		});
+		time("listTotals", runs, new Operation() {
+			public int run() {
+				// SessionListTotals of the first pages, with its columns
+				int rows = 0;
+				for (int kind : new int[] { Periods.WEEK, Periods.MONTH }) {
+					rows += count(contentResolver.query(MyTimeContentProvider
+							.getProjectTotalsUri(projectId, kind, Periods.move(
+									Periods.MONTH, now, -2), Long.MAX_VALUE),
+							SessionListTotals.TOTAL_COLUMNS, null, null, null));
+				}
+				return rows;
+			}
+		});
+		time("dashboard", runs, new Operation() {
+			public int run() {
+				// Dashboard
+				return count(contentResolver.query(CONTENT_URI_TOTAL,
+						new String[] { "project_id", "kind", "period_start",
+								"work_ms" },
+						"kind=? or (kind=? and period_start=?)", new String[] {
+								Integer.toString(Periods.MONTH),
+								Integer.toString(Periods.WEEK),
+								Long.toString(Periods.getStart(Periods.WEEK,
+										now)) }, "project_id"));
+			}
+		});
+		time("commentsRecent", runs, new Operation() {
+			public int run() {
+				// Session comment suggestions before typing
+				return count(contentResolver.query(MyTimeContentProvider
+						.getProjectCommentsUri(projectId, null), null, null,
+						null, null));
+			}
+		});
+		time("commentsSearch", runs, new Operation() {
+			public int run() {
+				// Session comment suggestions while typing
+				return count(contentResolver.query(MyTimeContentProvider
+						.getProjectCommentsUri(projectId, "me"), null, null,
+						null, null));
+			}
+		});
+		time("reportLastMonth", runs, new Operation() {
+			public int run() {
+				long from = Periods.move(Periods.MONTH, now, -1);
+				return writeReport(context, projectId, from, Periods.getEnd(
+						Periods.MONTH, from));
+			}
+		});
+		time("reportAll", Math.max(1, runs / 5), new Operation() {
+			public int run() {
+				return writeReport(context, projectId, 0, Long.MAX_VALUE);
+			}
+		});
+		time("intervalIndex", Math.max(1, runs / 5), new Operation() {
+			public int run() {
+				// Session and SessionOverlaps, after a change of sessions
+				return Sessions.readIntervalIndex(contentResolver).size();
+			}
+		});
+	}
+
+	/**
+	 * Runs an operation once to warm up, and then times it.
+	 */
+	private void time(String name, int runs, Operation operation) {
+		int rows = operation.run();
+		long[] nanos = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			long before = System.nanoTime();
+			operation.run();
+			nanos[i] = System.nanoTime() - before;
+		}
+		Arrays.sort(nanos);
+		print(name + "\t" + rows + "\t" + formatMillis(nanos[0]) + "\t"
+				+ formatMillis(nanos[runs / 2]) + "\t"
+				+ formatMillis(nanos[runs * 9 / 10]) + "\t"
+				+ formatMillis(nanos[runs - 1]));
+	}
+
+	private static String formatMillis(long nanos) {
+		return Long.toString(nanos / 1000000) + "."
+				+ Long.toString(nanos / 100000 % 10);
+	}
+
+	private void print(String line) {
+		Log.i(TAG, line);
+		report.append(line).append('\n');
+	}
+
+	/**
+	 * Reads all rows of a cursor and closes it.
+	 *
+	 * @return number of rows
+	 */
+	private static int count(Cursor cursor) {
+		try {
+			int rows = 0;
+			while (cursor.moveToNext()) {
+				rows++;
+			}
+			return rows;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Reads pages of sessions, newest first, as the session list does.
+	 *
+	 * @return number of sessions read
+	 */
+	private static int readPages(ContentResolver contentResolver,
+			long projectId, int pageCount) {
+		int rows = 0;
+		long before = Long.MAX_VALUE;
+		long beforeId = 0;
+		for (int page = 0; page < pageCount; page++) {
+			Uri.Builder uri = MyTimeContentProvider.getProjectSessionsUri(
+					projectId).buildUpon();
+			if (before != Long.MAX_VALUE) {
+				uri.appendQueryParameter(MyTimeContentProvider.PARAM_BEFORE,
+						Long.toString(before)).appendQueryParameter(
+						MyTimeContentProvider.PARAM_BEFORE_ID,
+						Long.toString(beforeId));
+			}
+			uri.appendQueryParameter(MyTimeContentProvider.PARAM_LIMIT,
+					Integer.toString(PAGE_SIZE));
+			Cursor cursor = contentResolver.query(uri.build(), new String[] {
+					"start", "end", "comment", "_id" }, null, null,
+					"start desc, _id desc");
+			try {
+				while (cursor.moveToNext()) {
+					long start = cursor.getLong(0);
+					long id = cursor.getLong(3);
+					if (rows > 0 && !(start < before || start == before
+							&& id < beforeId)) {
+						throw new IllegalStateException("session " + id
+								+ " not after session " + beforeId);
+					}
+					before = start;
+					beforeId = id;
+					rows++;
+				}
+				if (cursor.getCount() < PAGE_SIZE) {
+					break;
+				}
+			} finally {
+				cursor.close();
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Writes the time report of a period, with week and month totals, as
+	 * ShareProjectReport does.
+	 *
+	 * @return number of sessions read
+	 */
+	private static int writeReport(Context context, long projectId,
+			long from, long upTo) {
+		TimeReportWriter reportWriter = new TimeReportWriter(new PrintWriter(
+				new StringWriter()), Settings.getWorkRules(context), from, upTo);
+		reportWriter.setIncludeWeekTotals(true);
+		reportWriter.setIncludeMonthTotals(true);
+		return ShareProjectReport.addSessions(context, reportWriter, projectId);
+	}
+
+	/**
+	 * Returns the id of the project with the most sessions this month, or of
+	 * the first project if none has any.
+	 */
+	private static long getLargestProjectId(ContentResolver contentResolver) {
+		Cursor cursor = contentResolver.query(CONTENT_URI_TOTAL, new String[] {
+				"project_id", "sessions" }, "kind=? and period_start=?",
+				new String[] {
+						Integer.toString(Periods.MONTH),
+						Long.toString(Periods.getStart(Periods.MONTH, System
+								.currentTimeMillis())) }, "sessions desc");
+		try {
+			if (cursor.moveToNext()) {
+				return cursor.getLong(0);
+			}
+		} finally {
+			cursor.close();
+		}
+		cursor = contentResolver.query(CONTENT_URI_PROJECT,
+				new String[] { "_id" }, null, null, "_id");
+		try {
+			if (cursor.moveToNext()) {
+				return cursor.getLong(0);
+			}
+			throw new IllegalStateException("no projects");
+		} finally {
+			cursor.close();
+		}
+	}
+}
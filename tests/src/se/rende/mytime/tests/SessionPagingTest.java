@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime.tests;
+
+import static se.rende.mytime.Constants.AUTHORITY;
+import static se.rende.mytime.Constants.CONTENT_URI_PROJECT;
+import static se.rende.mytime.Constants.CONTENT_URI_SESSION;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+
+import se.rende.mytime.MyTimeContentProvider;
+
+/**
+ * Reads the sessions of a project page by page, as the session list does,
+ * on a provider with a database of its own.
+ *
+ * @author Dag Rende
+ */
+public class SessionPagingTest extends ProviderTestCase2<MyTimeContentProvider> {
+	private static final int PAGE_SIZE = 50;
+	/** sessions per start, so that pages end within equal starts */
+	private static final int SAME_START_COUNT = 7;
+	private static final int SESSION_COUNT = 3 * PAGE_SIZE + 13;
+	private static final long START = 1300000000000L;
+
+	public SessionPagingTest() {
+		super(MyTimeContentProvider.class, AUTHORITY);
+	}
+
+	public void testEverySessionOnceInStartAndIdOrder() {
+		ContentResolver contentResolver = getMockContentResolver();
+		ContentValues project = new ContentValues();
+		project.put("name", "paging");
+		long projectId = ContentUris.parseId(contentResolver.insert(
+				CONTENT_URI_PROJECT, project));
+		ContentValues[] sessions = new ContentValues[SESSION_COUNT];
+		for (int i = 0; i < SESSION_COUNT; i++) {
+			long start = START + i / SAME_START_COUNT * 3600000L;
+			sessions[i] = new ContentValues();
+			sessions[i].put("project_id", projectId);
+			sessions[i].put("start", start);
+			sessions[i].put("end", start + 1800000L);
+		}
+		contentResolver.bulkInsert(CONTENT_URI_SESSION, sessions);
+
+		Set<Long> ids = new HashSet<Long>();
+		int pages = 0;
+		long lastStart = Long.MAX_VALUE;
+		long lastId = Long.MAX_VALUE;
+		while (true) {
+			Uri.Builder uri = MyTimeContentProvider.getProjectSessionsUri(
+					projectId).buildUpon();
+			if (pages > 0) {
+				uri.appendQueryParameter(MyTimeContentProvider.PARAM_BEFORE,
+						Long.toString(lastStart)).appendQueryParameter(
+						MyTimeContentProvider.PARAM_BEFORE_ID,
+						Long.toString(lastId));
+			}
+			uri.appendQueryParameter(MyTimeContentProvider.PARAM_LIMIT,
+					Integer.toString(PAGE_SIZE));
+			Cursor page = contentResolver.query(uri.build(), new String[] {
+					"start", "_id" }, null, null, "start desc, _id desc");
+			try {
+				pages++;
+				while (page.moveToNext()) {
+					long start = page.getLong(0);
+					long id = page.getLong(1);
+					assertTrue("session " + id + " after " + lastId
+							+ " in start and id order", start < lastStart
+							|| start == lastStart && id < lastId);
+					assertTrue("session " + id + " read once", ids.add(id));
+					lastStart = start;
+					lastId = id;
+				}
+				if (page.getCount() < PAGE_SIZE) {
+					break;
+				}
+			} finally {
+				page.close();
+			}
+		}
+		assertEquals(SESSION_COUNT, ids.size());
+		assertEquals(SESSION_COUNT / PAGE_SIZE + 1, pages);
+	}
+}
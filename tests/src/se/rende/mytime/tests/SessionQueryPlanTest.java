@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import se.rende.mytime.MyTimeData;
+
+/**
+ * Checks by EXPLAIN QUERY PLAN that the session queries of the provider
+ * search the session indexes, and do not scan the session tables. The
+ * queries are those that MyTimeContentProvider builds from the selections
+ * of the screens.
+ *
+ * @author Dag Rende
+ */
+public class SessionQueryPlanTest extends AndroidTestCase {
+	private Context context;
+	private MyTimeData data;
+	private SQLiteDatabase db;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new RenamingDelegatingContext(getContext(), "plan_");
+		context.deleteDatabase(MyTimeData.DATABASE_NAME);
+		data = new MyTimeData(context);
+		db = data.getWritableDatabase();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		data.close();
+		context.deleteDatabase(MyTimeData.DATABASE_NAME);
+		super.tearDown();
+	}
+
+	/**
+	 * The sessions of a report period, as ShareProjectReport reads them.
+	 */
+	public void testRangeUsesProjectStartIndex() {
+		assertSearches("SELECT _id, start, end, comment FROM session_all"
+				+ " WHERE project_id=? AND (start>=? AND (start<?"
+				+ " AND (end is not null))) ORDER BY start asc",
+				"session_project_start", "session_archive_project_start");
+	}
+
+	/**
+	 * The running session, as MyTime and Sessions look for it.
+	 */
+	public void testRunningUsesEndIndex() {
+		assertSearches("SELECT project_id FROM session_hot WHERE end is null",
+				"session_end");
+	}
+
+	/**
+	 * A page of the session list after the first, as Sessions reads it.
+	 */
+	public void testSessionListUsesProjectStartIndex() {
+		assertSearches("SELECT start, end, comment, _id FROM session_all"
+				+ " WHERE project_id=? AND (start<=? and (start<? or _id<?))"
+				+ " ORDER BY start desc, _id desc LIMIT 50",
+				"session_project_start", "session_archive_project_start");
+	}
+
+	/**
+	 * Asserts that the plan of the query uses each of the indexes, and scans
+	 * neither session table.
+	 */
+	private void assertSearches(String sql, String... indexes) {
+		List<String> plan = explain(sql);
+		for (String index : indexes) {
+			boolean used = false;
+			for (String detail : plan) {
+				used |= detail.contains("INDEX " + index + " ");
+			}
+			assertTrue(index + " not used by " + plan, used);
+		}
+		for (String detail : plan) {
+			assertFalse("table scan in " + plan, detail
+					.matches("SCAN (TABLE )?session(_archive)?\\b.*")
+					&& !detail.contains("INDEX"));
+		}
+	}
+
+	private List<String> explain(String sql) {
+		int argCount = 0;
+		for (int i = 0; i < sql.length(); i++) {
+			if (sql.charAt(i) == '?') {
+				argCount++;
+			}
+		}
+		String[] args = new String[argCount];
+		for (int i = 0; i < argCount; i++) {
+			args[i] = "1";
+		}
+		Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+		try {
+			int detailColumn = cursor.getColumnIndex("detail");
+			List<String> plan = new ArrayList<String>();
+			while (cursor.moveToNext()) {
+				plan.add(cursor.getString(detailColumn));
+			}
+			return plan;
+		} finally {
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime.tests;
+
+import java.util.Random;
+
+/**
+ * A made up history of sessions, the same for the same seed. Sessions are
+ * given in start order, spread evenly over a time span, and do not overlap
+ * each other. A few projects have most of the sessions, a few comments are
+ * used by most sessions, some sessions last for days, and the last sessions
+ * can be left running. Used by LoadHarness to fill the database, and by the
+ * benchmarks.
+ *
+ * Uses no Android classes.
+ *
+ * @author Dag Rende
+ */
+public class SyntheticHistory {
+	private static final long MINUTE_MILLIS = 60 * 1000;
+	private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+	private static final String[] WORDS = { "meeting", "review", "design",
+			"bug", "support", "planning", "release", "call", "docs", "test",
+			"customer", "build", "travel", "training", "refactoring" };
+	private final long seed;
+	private final long startTime;
+	private final long endTime;
+	private final int sessionCount;
+	private int projectCount = 10;
+	private int commentCount = 500;
+	private double emptyCommentShare = 0.3;
+	private double longCommentShare = 0.01;
+	private double multiDayShare = 0.001;
+	private int runningCount;
+
+	/**
+	 * Is given each session of the history.
+	 */
+	public interface Listener {
+		/**
+		 * @param id
+		 *            id of the session, counting from 1 in start order
+		 * @param projectIndex
+		 *            index of the project of the session, 0 for the one with
+		 *            the most sessions
+		 * @param start
+		 *            start time of the session
+		 * @param end
+		 *            end time of the session, 0 if it is running
+		 * @param comment
+		 *            comment of the session, empty if none
+		 */
+		void session(long id, int projectIndex, long start, long end,
+				String comment);
+	}
+
+	/**
+	 * @param seed
+	 *            the same seed gives the same history
+	 * @param startTime
+	 *            start of the first session
+	 * @param endTime
+	 *            about the end of the last session
+	 * @param sessionCount
+	 *            number of sessions
+	 */
+	public SyntheticHistory(long seed, long startTime, long endTime,
+			int sessionCount) {
+		if (endTime <= startTime || sessionCount < 0) {
+			throw new IllegalArgumentException("startTime=" + startTime
+					+ ", endTime=" + endTime + ", sessionCount=" + sessionCount);
+		}
+		this.seed = seed;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.sessionCount = sessionCount;
+	}
+
+	/**
+	 * @param projectCount
+	 *            number of projects, the sessions are spread over them by
+	 *            Zipf's law
+	 */
+	public void setProjectCount(int projectCount) {
+		this.projectCount = Math.max(1, projectCount);
+	}
+
+	public int getProjectCount() {
+		return projectCount;
+	}
+
+	/**
+	 * @param commentCount
+	 *            number of different comments, used by Zipf's law
+	 */
+	public void setCommentCount(int commentCount) {
+		this.commentCount = Math.max(1, commentCount);
+	}
+
+	/**
+	 * @param emptyCommentShare
+	 *            share of sessions without a comment
+	 * @param longCommentShare
+	 *            share of sessions with a long comment of their own, of
+	 *            some hundred characters
+	 */
+	public void setCommentShares(double emptyCommentShare,
+			double longCommentShare) {
+		this.emptyCommentShare = emptyCommentShare;
+		this.longCommentShare = longCommentShare;
+	}
+
+	/**
+	 * @param multiDayShare
+	 *            share of sessions that last one to three days
+	 */
+	public void setMultiDayShare(double multiDayShare) {
+		this.multiDayShare = multiDayShare;
+	}
+
+	/**
+	 * @param runningCount
+	 *            number of sessions left running, the last ones, of
+	 *            different projects
+	 */
+	public void setRunningCount(int runningCount) {
+		this.runningCount = Math.max(0, Math.min(runningCount, Math.min(
+				sessionCount, projectCount)));
+	}
+
+	public int getSessionCount() {
+		return sessionCount;
+	}
+
+	/**
+	 * Returns the name of a project.
+	 */
+	public String getProjectName(int projectIndex) {
+		return "Project " + (projectIndex + 1);
+	}
+
+	/**
+	 * Gives the sessions to the listener, in start order.
+	 */
+	public void generate(Listener listener) {
+		Random random = new Random(seed);
+		double[] projectWeights = getZipfWeights(projectCount);
+		double[] commentWeights = getZipfWeights(commentCount);
+		String[] comments = new String[commentCount];
+		for (int i = 0; i < commentCount; i++) {
+			comments[i] = WORDS[i % WORDS.length] + " " + (i + 1);
+		}
+		// each session has a slot of the span, and starts in it unless the
+		// sessions before it have run late
+		double slotMillis = (endTime - startTime) / (double) sessionCount;
+		long previousEnd = startTime;
+		int firstRunning = sessionCount - runningCount;
+		for (int i = 0; i < sessionCount; i++) {
+			long slotStart = startTime + (long) (i * slotMillis);
+			long start = Math.max(slotStart
+					+ (long) (random.nextDouble() * slotMillis * 0.2),
+					previousEnd + Math.min(MINUTE_MILLIS, (long) slotMillis / 10));
+			long end;
+			if (random.nextDouble() < multiDayShare) {
+				end = start + DAY_MILLIS + (long) (random.nextDouble() * 2 * DAY_MILLIS);
+			} else {
+				end = start + 1 + (long) (slotMillis
+						* (0.4 + 0.4 * random.nextDouble()));
+			}
+			previousEnd = end;
+			int projectIndex;
+			if (i >= firstRunning) {
+				// one running session per project
+				projectIndex = i - firstRunning;
+				end = 0;
+			} else {
+				projectIndex = pick(projectWeights, random);
+			}
+			String comment;
+			double commentKind = random.nextDouble();
+			if (commentKind < emptyCommentShare) {
+				comment = "";
+			} else if (commentKind < emptyCommentShare + longCommentShare) {
+				comment = getLongComment(random);
+			} else {
+				comment = comments[pick(commentWeights, random)];
+			}
+			listener.session(i + 1, projectIndex, start, end, comment);
+		}
+	}
+
+	/**
+	 * Returns the cumulative weights of n choices by Zipf's law, the first
+	 * one most likely.
+	 */
+	private static double[] getZipfWeights(int n) {
+		double[] weights = new double[n];
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += 1d / (i + 1);
+			weights[i] = sum;
+		}
+		for (int i = 0; i < n; i++) {
+			weights[i] /= sum;
+		}
+		return weights;
+	}
+
+	/**
+	 * Returns a random choice by cumulative weights.
+	 */
+	private static int pick(double[] weights, Random random) {
+		double r = random.nextDouble();
+		int low = 0;
+		int high = weights.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (weights[mid] < r) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static String getLongComment(Random random) {
+		StringBuilder comment = new StringBuilder();
+		int wordCount = 30 + random.nextInt(120);
+		for (int i = 0; i < wordCount; i++) {
+			if (i > 0) {
+				comment.append(' ');
+			}
+			comment.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return comment.toString();
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2010 Dag Rende
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package se.rende.mytime.tests;
+
+import java.util.Arrays;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import se.rende.mytime.MyTimeData;
+
+/**
+ * Reads pages of sessions while another thread adds sessions in
+ * transactions, as the session list does while FireReceiver or
+ * MaintenanceService writes, with the rollback journal and with the
+ * write-ahead log, and logs the percentiles of the read and write times.
+ * The write-ahead log is left out where the device has none.
+ *
+ * @author Dag Rende
+ */
+public class WriteAheadLogStressTest extends AndroidTestCase {
+	private static final String TAG = "WriteAheadLogStressTest";
+	private static final int SEED_SESSIONS = 5000;
+	private static final int WRITES = 200;
+	private static final int SESSIONS_PER_WRITE = 20;
+	private static final String PAGE_SQL = "select start, end, comment, _id"
+			+ " from session where project_id=? and deleted=0"
+			+ " order by start desc, _id desc limit 50";
+	private Context context;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new RenamingDelegatingContext(getContext(), "stress_");
+	}
+
+	public void testRollbackJournal() throws Exception {
+		run(false);
+	}
+
+	public void testWriteAheadLog() throws Exception {
+		if (!MyTimeData.isWriteAheadLogSupported()) {
+			Log.i(TAG, "no write-ahead log on this device");
+			return;
+		}
+		run(true);
+	}
+
+	private void run(boolean writeAheadLog) throws Exception {
+		context.deleteDatabase(MyTimeData.DATABASE_NAME);
+		MyTimeData data = new MyTimeData(context);
+		try {
+			final SQLiteDatabase db = data.getWritableDatabase();
+			assertEquals(writeAheadLog, MyTimeData.setWriteAheadLog(db,
+					writeAheadLog));
+			ContentValues project = new ContentValues();
+			project.put("name", "stress");
+			final long projectId = db.insert("project", null, project);
+			final long[] time = { 1300000000000L };
+			addSessions(db, projectId, time, SEED_SESSIONS);
+
+			final long[] writeNanos = new long[WRITES];
+			final Throwable[] writeError = new Throwable[1];
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < WRITES; i++) {
+							long before = System.nanoTime();
+							addSessions(db, projectId, time, SESSIONS_PER_WRITE);
+							writeNanos[i] = System.nanoTime() - before;
+						}
+					} catch (Throwable e) {
+						writeError[0] = e;
+					}
+				}
+			};
+			long[] readNanos = new long[1000];
+			int reads = 0;
+			String[] args = { Long.toString(projectId) };
+			writer.start();
+			while (writer.isAlive()) {
+				long before = System.nanoTime();
+				Cursor cursor = db.rawQuery(PAGE_SQL, args);
+				try {
+					assertEquals(50, cursor.getCount());
+				} finally {
+					cursor.close();
+				}
+				if (reads == readNanos.length) {
+					long[] more = new long[reads * 2];
+					System.arraycopy(readNanos, 0, more, 0, reads);
+					readNanos = more;
+				}
+				readNanos[reads++] = System.nanoTime() - before;
+			}
+			writer.join();
+			assertNull(writeError[0]);
+			String journal = writeAheadLog ? "wal" : "rollback";
+			log(journal + " read", readNanos, reads);
+			log(journal + " write", writeNanos, WRITES);
+			assertTrue(reads > 0);
+		} finally {
+			data.close();
+			context.deleteDatabase(MyTimeData.DATABASE_NAME);
+		}
+	}
+
+	/**
+	 * Adds ended sessions after the time, in one transaction.
+	 */
+	private static void addSessions(SQLiteDatabase db, long projectId,
+			long[] time, int count) {
+		ContentValues values = new ContentValues();
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < count; i++) {
+				values.put("project_id", projectId);
+				values.put("start", time[0]);
+				values.put("end", time[0] + 1800000L);
+				values.put("comment", "stress " + i % 10);
+				db.insert("session", null, values);
+				time[0] += 3600000L;
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	private static void log(String name, long[] nanos, int count) {
+		long[] sorted = new long[count];
+		System.arraycopy(nanos, 0, sorted, 0, count);
+		Arrays.sort(sorted);
+		Log.i(TAG, name + " " + count + " times, ms: 50% "
+				+ formatMillis(sorted[count / 2]) + ", 90% "
+				+ formatMillis(sorted[count * 9 / 10]) + ", 99% "
+				+ formatMillis(sorted[count * 99 / 100]) + ", max "
+				+ formatMillis(sorted[count - 1]));
+	}
+
+	private static String formatMillis(long nanos) {
+		return Long.toString(nanos / 1000000) + "."
+				+ Long.toString(nanos / 100000 % 10);
+	}
+}